@@ -1,7 +1,39 @@
 package com.avit.safe.demo;
 
+import com.avit.safe.sqlite.Column;
+import com.avit.safe.sqlite.Key;
+import com.avit.safe.sqlite.Table;
+
+@Table("test_bean")
 public class TestBean {
+    @Key
     private int a;
+    @Column
     private float b;
+    @Column
     private String string;
+
+    public int getA() {
+        return a;
+    }
+
+    public void setA(int a) {
+        this.a = a;
+    }
+
+    public float getB() {
+        return b;
+    }
+
+    public void setB(float b) {
+        this.b = b;
+    }
+
+    public String getString() {
+        return string;
+    }
+
+    public void setString(String string) {
+        this.string = string;
+    }
 }
@@ -0,0 +1,34 @@
+package android.database;
+
+import java.io.Closeable;
+
+/**
+ * Stand-in for the Android interface, the getters the library and generated mappings use.
+ */
+public interface Cursor extends Closeable {
+
+    int getCount();
+
+    boolean moveToNext();
+
+    int getColumnCount();
+
+    boolean isNull(int columnIndex);
+
+    short getShort(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    float getFloat(int columnIndex);
+
+    double getDouble(int columnIndex);
+
+    String getString(int columnIndex);
+
+    byte[] getBlob(int columnIndex);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,18 @@
+package android.database;
+
+/**
+ * Stand-in for the Android class.
+ */
+public class SQLException extends RuntimeException {
+
+    public SQLException() {
+    }
+
+    public SQLException(String error) {
+        super(error);
+    }
+
+    public SQLException(String error, Throwable cause) {
+        super(error, cause);
+    }
+}
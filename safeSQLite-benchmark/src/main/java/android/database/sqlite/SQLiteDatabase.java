@@ -0,0 +1,286 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stand-in for the Android class over one sqlite-jdbc connection.
+ * <p>
+ * Like the primary connection of Android it serves one thread at a time, and a transaction
+ * keeps it until it ends. Prepared statements are kept by SQL in a bounded cache, queries read
+ * their rows at once, busy and locked errors become {@link SQLiteDatabaseLockedException} and
+ * {@link SQLiteTableLockedException}. There are no separate reader connections.
+ */
+public final class SQLiteDatabase {
+
+    public static final int OPEN_READWRITE = 0x00000000;
+    public static final int CREATE_IF_NECESSARY = 0x10000000;
+    public static final int ENABLE_WRITE_AHEAD_LOGGING = 0x20000000;
+
+    // SQLite result codes
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    public interface CursorFactory {
+    }
+
+    public static SQLiteDatabase openDatabase(String path, CursorFactory factory, int flags) {
+        try {
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+            SQLiteDatabase db = new SQLiteDatabase(path, connection);
+            if ((flags & ENABLE_WRITE_AHEAD_LOGGING) != 0)
+                db.rawQuery("PRAGMA journal_mode = WAL", null).close();
+            return db;
+        } catch (SQLException e) {
+            throw translate(e);
+        }
+    }
+
+    private final String path;
+    private final Connection connection;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock
+    private final LinkedHashMap<String, PreparedStatement> prepared = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxSqlCacheSize = 25;
+    // successful flags of the nested transactions, innermost first
+    private final ArrayDeque<Boolean> transactions = new ArrayDeque<>();
+    private boolean transactionFailed;
+    private volatile boolean open = true;
+
+    private SQLiteDatabase(String path, Connection connection) {
+        this.path = path;
+        this.connection = connection;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void setMaxSqlCacheSize(int cacheSize) {
+        if (cacheSize < 0 || cacheSize > 100)
+            throw new IllegalStateException("expected value between 0 and 100");
+        lock.lock();
+        try {
+            maxSqlCacheSize = cacheSize;
+            trim();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        return new SQLiteStatement(this, sql);
+    }
+
+    public void execSQL(String sql) {
+        executeUpdate(sql, new Object[0]);
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        lock.lock();
+        try {
+            PreparedStatement statement = prepare(sql, selectionArgs == null ? new Object[0] : selectionArgs);
+            try {
+                if (!statement.execute())
+                    return new WindowCursor(0, new ArrayList<Object[]>());
+
+                ResultSet rs = statement.getResultSet();
+                try {
+                    int columns = rs.getMetaData().getColumnCount();
+                    List<Object[]> rows = new ArrayList<>();
+                    while (rs.next()) {
+                        Object[] row = new Object[columns];
+                        for (int i = 0; i < columns; i++) {
+                            row[i] = rs.getObject(i + 1);
+                        }
+                        rows.add(row);
+                    }
+                    return new WindowCursor(columns, rows);
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                statement.clearParameters();
+            }
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int executeUpdate(String sql, Object[] bindArgs) {
+        lock.lock();
+        try {
+            PreparedStatement statement = prepare(sql, bindArgs);
+            try {
+                return statement.executeUpdate();
+            } finally {
+                statement.clearParameters();
+            }
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long simpleQueryForLong(String sql, Object[] bindArgs) {
+        lock.lock();
+        try {
+            PreparedStatement statement = prepare(sql, bindArgs);
+            try {
+                ResultSet rs = statement.executeQuery();
+                try {
+                    if (!rs.next())
+                        throw new SQLiteException("query returned no rows: " + sql);
+                    return rs.getLong(1);
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                statement.clearParameters();
+            }
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Nested transactions join the outermost one, which rolls back if any of them was not
+     * marked successful.
+     */
+    public void beginTransaction() {
+        lock.lock();
+        if (transactions.isEmpty()) {
+            transactionFailed = false;
+            try {
+                execute("BEGIN IMMEDIATE");
+            } catch (SQLException e) {
+                lock.unlock();
+                throw translate(e);
+            }
+        }
+        transactions.push(Boolean.FALSE);
+    }
+
+    public void setTransactionSuccessful() {
+        checkTransaction();
+        transactions.pop();
+        transactions.push(Boolean.TRUE);
+    }
+
+    public boolean inTransaction() {
+        return lock.isHeldByCurrentThread() && !transactions.isEmpty();
+    }
+
+    public void endTransaction() {
+        checkTransaction();
+        try {
+            if (!transactions.pop())
+                transactionFailed = true;
+            if (transactions.isEmpty())
+                execute(transactionFailed ? "ROLLBACK" : "COMMIT");
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkTransaction() {
+        if (!lock.isHeldByCurrentThread() || transactions.isEmpty())
+            throw new IllegalStateException("no transaction pending");
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            if (!open)
+                return;
+            open = false;
+            for (PreparedStatement statement : prepared.values()) {
+                statement.close();
+            }
+            prepared.clear();
+            connection.close();
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private PreparedStatement prepare(String sql, Object[] bindArgs) throws SQLException {
+        if (!open)
+            throw new IllegalStateException("database " + path + " already closed");
+
+        PreparedStatement statement = prepared.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            prepared.put(sql, statement);
+            trim();
+        }
+        for (int i = 0; i < bindArgs.length; i++) {
+            statement.setObject(i + 1, bindArgs[i]);
+        }
+        return statement;
+    }
+
+    private void trim() {
+        Iterator<PreparedStatement> it = prepared.values().iterator();
+        // the statement just prepared is the most recent and stays
+        while (prepared.size() > Math.max(1, maxSqlCacheSize) && it.hasNext()) {
+            try {
+                it.next().close();
+            } catch (SQLException ignored) {
+                // closing only frees the native statement
+            }
+            it.remove();
+        }
+    }
+
+    static SQLiteException translate(SQLException e) {
+        switch (e.getErrorCode() & 0xff) {
+            case SQLITE_BUSY:
+                return new SQLiteDatabaseLockedException(e.getMessage(), e);
+            case SQLITE_LOCKED:
+                return new SQLiteTableLockedException(e.getMessage(), e);
+            default:
+                return new SQLiteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteDatabase{" + path + '}';
+    }
+}
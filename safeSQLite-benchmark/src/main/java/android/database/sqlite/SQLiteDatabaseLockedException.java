@@ -0,0 +1,18 @@
+package android.database.sqlite;
+
+/**
+ * Stand-in for the Android class.
+ */
+public class SQLiteDatabaseLockedException extends SQLiteException {
+
+    public SQLiteDatabaseLockedException() {
+    }
+
+    public SQLiteDatabaseLockedException(String error) {
+        super(error);
+    }
+
+    public SQLiteDatabaseLockedException(String error, Throwable cause) {
+        super(error, cause);
+    }
+}
@@ -0,0 +1,20 @@
+package android.database.sqlite;
+
+import android.database.SQLException;
+
+/**
+ * Stand-in for the Android class.
+ */
+public class SQLiteException extends SQLException {
+
+    public SQLiteException() {
+    }
+
+    public SQLiteException(String error) {
+        super(error);
+    }
+
+    public SQLiteException(String error, Throwable cause) {
+        super(error, cause);
+    }
+}
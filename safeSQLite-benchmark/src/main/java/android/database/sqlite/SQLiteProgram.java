@@ -0,0 +1,66 @@
+package android.database.sqlite;
+
+import java.util.Arrays;
+
+/**
+ * Stand-in for the Android class. As there, bindings are kept in an array and applied to the
+ * connection's prepared statement of the same SQL when the program runs.
+ */
+public abstract class SQLiteProgram {
+
+    final SQLiteDatabase db;
+    final String sql;
+    private Object[] bindArgs = new Object[8];
+    private int bound;
+
+    SQLiteProgram(SQLiteDatabase db, String sql) {
+        this.db = db;
+        this.sql = sql;
+    }
+
+    public void bindNull(int index) {
+        bind(index, null);
+    }
+
+    public void bindLong(int index, long value) {
+        bind(index, value);
+    }
+
+    public void bindDouble(int index, double value) {
+        bind(index, value);
+    }
+
+    public void bindString(int index, String value) {
+        if (value == null)
+            throw new IllegalArgumentException("the bind value at index " + index + " is null");
+        bind(index, value);
+    }
+
+    public void bindBlob(int index, byte[] value) {
+        if (value == null)
+            throw new IllegalArgumentException("the bind value at index " + index + " is null");
+        bind(index, value);
+    }
+
+    public void clearBindings() {
+        Arrays.fill(bindArgs, 0, bound, null);
+        bound = 0;
+    }
+
+    public void close() {
+        clearBindings();
+    }
+
+    private void bind(int index, Object value) {
+        if (index < 1)
+            throw new IllegalArgumentException("index < 1: " + index);
+        if (index > bindArgs.length)
+            bindArgs = Arrays.copyOf(bindArgs, Math.max(index, bindArgs.length * 2));
+        bindArgs[index - 1] = value;
+        bound = Math.max(bound, index);
+    }
+
+    Object[] getBindArgs() {
+        return Arrays.copyOf(bindArgs, bound);
+    }
+}
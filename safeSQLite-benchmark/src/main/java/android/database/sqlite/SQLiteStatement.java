@@ -0,0 +1,35 @@
+package android.database.sqlite;
+
+/**
+ * Stand-in for the Android class.
+ */
+public final class SQLiteStatement extends SQLiteProgram {
+
+    SQLiteStatement(SQLiteDatabase db, String sql) {
+        super(db, sql);
+    }
+
+    public void execute() {
+        db.executeUpdate(sql, getBindArgs());
+    }
+
+    public int executeUpdateDelete() {
+        return db.executeUpdate(sql, getBindArgs());
+    }
+
+    /**
+     * @return -1 if no row was inserted, else a positive number; the row id is not tracked
+     */
+    public long executeInsert() {
+        return db.executeUpdate(sql, getBindArgs()) > 0 ? 1 : -1;
+    }
+
+    public long simpleQueryForLong() {
+        return db.simpleQueryForLong(sql, getBindArgs());
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteStatement{" + sql + '}';
+    }
+}
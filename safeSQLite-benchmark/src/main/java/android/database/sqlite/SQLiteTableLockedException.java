@@ -0,0 +1,18 @@
+package android.database.sqlite;
+
+/**
+ * Stand-in for the Android class.
+ */
+public class SQLiteTableLockedException extends SQLiteException {
+
+    public SQLiteTableLockedException() {
+    }
+
+    public SQLiteTableLockedException(String error) {
+        super(error);
+    }
+
+    public SQLiteTableLockedException(String error, Throwable cause) {
+        super(error, cause);
+    }
+}
@@ -0,0 +1,113 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+import java.util.List;
+
+/**
+ * The rows of a query read at once, like a cursor window that holds them all.
+ */
+final class WindowCursor implements Cursor {
+
+    private final int columns;
+    private final List<Object[]> rows;
+    private int position = -1;
+
+    WindowCursor(int columns, List<Object[]> rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    @Override
+    public boolean moveToNext() {
+        if (position >= rows.size())
+            return false;
+        return ++position < rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns;
+    }
+
+    private Object value(int columnIndex) {
+        if (position < 0 || position >= rows.size())
+            throw new IllegalStateException("cursor at " + position + " of " + rows.size());
+        return rows.get(position)[columnIndex];
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return value(columnIndex) == null;
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object value = value(columnIndex);
+        if (value == null)
+            return 0;
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        Object value = value(columnIndex);
+        if (value == null)
+            return 0;
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object value = value(columnIndex);
+        if (value == null)
+            return null;
+        if (value instanceof byte[])
+            throw new SQLiteException("unable to convert BLOB to string");
+        return value.toString();
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        Object value = value(columnIndex);
+        if (value == null || value instanceof byte[])
+            return (byte[]) value;
+        return value.toString().getBytes();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class, reports the compile SDK.
+ */
+public final class Build {
+
+    public static final class VERSION {
+        public static final int SDK_INT = 29;
+
+        private VERSION() {
+        }
+    }
+
+    private Build() {
+    }
+}
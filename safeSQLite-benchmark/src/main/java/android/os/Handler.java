@@ -0,0 +1,59 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class, without delayed messages.
+ */
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public void handleMessage(Message msg) {
+    }
+
+    public void dispatchMessage(Message msg) {
+        handleMessage(msg);
+    }
+
+    public final Message obtainMessage() {
+        Message msg = Message.obtain();
+        msg.target = this;
+        return msg;
+    }
+
+    public final Message obtainMessage(int what) {
+        Message msg = obtainMessage();
+        msg.what = what;
+        return msg;
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        Message msg = obtainMessage(what);
+        msg.obj = obj;
+        return msg;
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        Message msg = obtainMessage(what, obj);
+        msg.arg1 = arg1;
+        msg.arg2 = arg2;
+        return msg;
+    }
+
+    public final boolean sendMessage(Message msg) {
+        msg.target = this;
+        looper.enqueue(msg);
+        return true;
+    }
+
+    public final boolean sendEmptyMessage(int what) {
+        return sendMessage(obtainMessage(what));
+    }
+}
@@ -0,0 +1,59 @@
+package android.os;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Stand-in for the Android class, the main looper is a daemon thread named "main" that
+ * dispatches messages in order.
+ */
+public final class Looper {
+
+    private static final Looper MAIN = new Looper("main");
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return Thread.currentThread() == MAIN.thread ? MAIN : null;
+    }
+
+    private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private Looper(String name) {
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    void enqueue(Message msg) {
+        queue.add(msg);
+    }
+
+    private void loop() {
+        while (true) {
+            Message msg;
+            try {
+                msg = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                msg.target.dispatchMessage(msg);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
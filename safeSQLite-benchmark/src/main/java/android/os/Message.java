@@ -0,0 +1,32 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class.
+ */
+public final class Message {
+
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+    Handler target;
+
+    public static Message obtain() {
+        return new Message();
+    }
+
+    public void copyFrom(Message o) {
+        what = o.what;
+        arg1 = o.arg1;
+        arg2 = o.arg2;
+        obj = o.obj;
+    }
+
+    public Handler getTarget() {
+        return target;
+    }
+
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+}
@@ -0,0 +1,84 @@
+package com.avit.safe.sqlite.benchmark;
+
+import com.avit.safe.sqlite.AsyncDatabaseOperator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from submitting an async call to its listener running on the main thread, over SQLite.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncLatencyBenchmark {
+
+    private static final int ROWS = 1024;
+
+    private BenchmarkDatabase database;
+    private AsyncDatabaseOperator<BenchRow> async;
+    private List<BenchRow> rows;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        database = new BenchmarkDatabase();
+        rows = BenchmarkDatabase.rows(ROWS);
+        database.operator.saveOrUpdate(rows);
+        async = database.manager.async(database.operator);
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    private BenchRow nextRow() {
+        return rows.get(next++ & (ROWS - 1));
+    }
+
+    @Benchmark
+    public void read() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        async.onReadListener(new AsyncDatabaseOperator.AsyncReadListener<BenchRow>() {
+            @Override
+            public void onRead(int count, Object object, List<BenchRow> rets) {
+                done.countDown();
+            }
+
+            @Override
+            public void onDone(int count, Object src) {
+            }
+        }).read(nextRow());
+        done.await();
+    }
+
+    @Benchmark
+    public void saveOrUpdate() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        async.onListener(new AsyncDatabaseOperator.AsyncListener() {
+            @Override
+            public void onDone(int count, Object src) {
+                done.countDown();
+            }
+        }).saveOrUpdate(nextRow());
+        done.await();
+    }
+}
@@ -0,0 +1,66 @@
+package com.avit.safe.sqlite.benchmark;
+
+import com.avit.safe.sqlite.IDatabaseOperation;
+import com.avit.safe.sqlite.SafeDatabaseOperator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second written through the safe operator into SQLite, in transactions of batch rows.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchWriteBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({"1", "100", "1000"})
+    public int batch;
+
+    private BenchmarkDatabase database;
+    private IDatabaseOperation<BenchRow> safe;
+    private List<BenchRow> rows;
+
+    @Setup
+    public void setUp() throws IOException {
+        database = new BenchmarkDatabase();
+        safe = SafeDatabaseOperator.safe(database.operator);
+        rows = BenchmarkDatabase.rows(ROWS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int write() {
+        int written = 0;
+        for (int i = 0; i < ROWS; i += batch) {
+            List<BenchRow> chunk = rows.subList(i, Math.min(ROWS, i + batch));
+            written += batch == 1 ? safe.saveOrUpdate(chunk.get(0)) : safe.saveOrUpdate(chunk);
+        }
+        return written;
+    }
+}
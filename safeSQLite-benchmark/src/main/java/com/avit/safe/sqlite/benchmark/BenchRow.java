@@ -0,0 +1,24 @@
+package com.avit.safe.sqlite.benchmark;
+
+import com.avit.safe.sqlite.Column;
+import com.avit.safe.sqlite.Key;
+import com.avit.safe.sqlite.Table;
+
+@Table("bench_row")
+public class BenchRow {
+    @Key
+    long id;
+    @Column
+    String name;
+    @Column
+    long value;
+
+    public BenchRow() {
+    }
+
+    BenchRow(long id, String name, long value) {
+        this.id = id;
+        this.name = name;
+        this.value = value;
+    }
+}
@@ -0,0 +1,43 @@
+package com.avit.safe.sqlite.benchmark;
+
+import com.avit.safe.sqlite.ConnectionManager;
+import com.avit.safe.sqlite.SQLiteDatabaseOperator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A WAL database in a temporary file with the table of {@link BenchRow}.
+ */
+final class BenchmarkDatabase {
+
+    private final File file;
+    final ConnectionManager manager;
+    final SQLiteDatabaseOperator<Long, BenchRow> operator;
+
+    BenchmarkDatabase() throws IOException {
+        file = File.createTempFile("safe-sqlite-bench-", ".db");
+        // the idle maintenance would run at random points of the measurement
+        manager = ConnectionManager.open(file.getPath(), ConnectionManager.Profile.interactive().idleCheck(0));
+        manager.getDatabase().execSQL("CREATE TABLE IF NOT EXISTS bench_row (id INTEGER PRIMARY KEY, name TEXT, value INTEGER)");
+        operator = new SQLiteDatabaseOperator<>(manager.getDatabase(), BenchRow_Mapping.INSTANCE);
+    }
+
+    static List<BenchRow> rows(int count) {
+        List<BenchRow> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(new BenchRow(i, "row-" + i, i * 31L));
+        }
+        return rows;
+    }
+
+    void close() {
+        operator.close();
+        manager.close();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+        file.delete();
+    }
+}
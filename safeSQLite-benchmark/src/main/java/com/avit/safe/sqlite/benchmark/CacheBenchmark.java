@@ -0,0 +1,139 @@
+package com.avit.safe.sqlite.benchmark;
+
+import android.util.LruCache;
+
+import com.avit.safe.sqlite.BaseDatabaseOperator;
+import com.avit.safe.sqlite.MemoryCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Get and put of the striped {@link MemoryCache} against the single monitor {@link LruCache},
+ * and of the operator cache on top of it, at 1, 4 and as many threads as there are processors.
+ * <p>
+ * With a key space of twice the capacity half the gets miss and the puts evict.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class CacheBenchmark {
+
+    private static final int CAPACITY = 16384;
+
+    @State(Scope.Benchmark)
+    public static class Caches {
+        @Param({"8192", "32768"})
+        public int keySpace;
+
+        Long[] keys;
+        BenchRow[] rows;
+        MemoryCache<Long, BenchRow> memoryCache;
+        LruCache<Long, BenchRow> lruCache;
+        BaseDatabaseOperator.Cache<Long, BenchRow> operatorCache;
+
+        @Setup
+        public void setUp() {
+            keys = new Long[keySpace];
+            rows = new BenchRow[keySpace];
+            for (int i = 0; i < keySpace; i++) {
+                keys[i] = (long) i;
+                rows[i] = new BenchRow(i, "row-" + i, i);
+            }
+
+            memoryCache = new MemoryCache<>(CAPACITY);
+            lruCache = new LruCache<>(CAPACITY);
+            operatorCache = new MapOperator(new BaseDatabaseOperator.Cache.Builder<Long, BenchRow>()
+                    .maximumSize(CAPACITY)).getMemoryCache();
+            operatorCache.enableMemoryCache();
+
+            for (int i = 0; i < Math.min(keySpace, CAPACITY); i++) {
+                memoryCache.put(keys[i], rows[i]);
+                lruCache.put(keys[i], rows[i]);
+                operatorCache.putCache(rows[i]);
+            }
+        }
+    }
+
+    /**
+     * Random indexes drawn ahead, so drawing them is not measured.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static final int MASK = 4095;
+
+        private final int[] indexes = new int[MASK + 1];
+        private int next;
+
+        @Setup
+        public void setUp(Caches caches) {
+            Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = random.nextInt(caches.keySpace);
+            }
+        }
+
+        int next() {
+            return indexes[next++ & MASK];
+        }
+    }
+
+    @Benchmark
+    public BenchRow memoryCacheGet(Caches caches, Cursor cursor) {
+        return caches.memoryCache.get(caches.keys[cursor.next()]);
+    }
+
+    @Benchmark
+    public BenchRow lruCacheGet(Caches caches, Cursor cursor) {
+        return caches.lruCache.get(caches.keys[cursor.next()]);
+    }
+
+    @Benchmark
+    public BenchRow operatorCacheGet(Caches caches, Cursor cursor) {
+        return caches.operatorCache.getCache(caches.keys[cursor.next()]);
+    }
+
+    @Benchmark
+    public BenchRow memoryCachePut(Caches caches, Cursor cursor) {
+        int i = cursor.next();
+        return caches.memoryCache.put(caches.keys[i], caches.rows[i]);
+    }
+
+    @Benchmark
+    public BenchRow lruCachePut(Caches caches, Cursor cursor) {
+        int i = cursor.next();
+        return caches.lruCache.put(caches.keys[i], caches.rows[i]);
+    }
+
+    @Benchmark
+    public void operatorCachePut(Caches caches, Cursor cursor) {
+        caches.operatorCache.putCache(caches.rows[cursor.next()]);
+    }
+
+    @Threads(1)
+    public static class OneThread extends CacheBenchmark {
+    }
+
+    @Threads(4)
+    public static class FourThreads extends CacheBenchmark {
+    }
+
+    @Threads(Threads.MAX)
+    public static class AllThreads extends CacheBenchmark {
+    }
+}
@@ -0,0 +1,46 @@
+package com.avit.safe.sqlite.benchmark;
+
+import com.avit.safe.sqlite.BaseDatabaseOperator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Operator over a map, so what is measured on top of it is the library and not a database.
+ */
+final class MapOperator extends BaseDatabaseOperator<Long, BenchRow> {
+
+    private final ConcurrentHashMap<Long, BenchRow> rows = new ConcurrentHashMap<>();
+
+    MapOperator(Cache.Builder<Long, BenchRow> cacheBuilder) {
+        super(cacheBuilder);
+    }
+
+    @Override
+    public String getLogTag() {
+        return "MapOperator";
+    }
+
+    @Override
+    protected Long dataKey(BenchRow row) {
+        return row.id;
+    }
+
+    @Override
+    public int saveOrUpdate(BenchRow row) {
+        rows.put(row.id, row);
+        super.saveOrUpdate(row);
+        return 1;
+    }
+
+    @Override
+    public BenchRow read(BenchRow row) {
+        BenchRow ret = super.read(row);
+        return ret != null ? ret : rows.get(row.id);
+    }
+
+    @Override
+    public int count(Map<String, Object> objects) {
+        return rows.size();
+    }
+}
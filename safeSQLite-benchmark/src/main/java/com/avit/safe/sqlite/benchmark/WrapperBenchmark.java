@@ -0,0 +1,90 @@
+package com.avit.safe.sqlite.benchmark;
+
+import com.avit.safe.sqlite.BaseDatabaseOperator;
+import com.avit.safe.sqlite.CountingOperator;
+import com.avit.safe.sqlite.IDatabaseOperation;
+import com.avit.safe.sqlite.QueryCacheOperator;
+import com.avit.safe.sqlite.SafeDatabaseOperator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What each wrapper adds to a call, over an operator answering from a map.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WrapperBenchmark {
+
+    private static final int ROWS = 1024;
+
+    private final Map<String, Object> criteria = Collections.<String, Object>singletonMap("value", 7L);
+
+    private BenchRow row;
+    private MapOperator raw;
+    private IDatabaseOperation<BenchRow> safe;
+    private IDatabaseOperation<BenchRow> queryCached;
+    private IDatabaseOperation<BenchRow> counting;
+
+    @Setup
+    public void setUp() {
+        raw = new MapOperator(new BaseDatabaseOperator.Cache.Builder<Long, BenchRow>());
+        raw.getMemoryCache().enableMemoryCache();
+        for (BenchRow r : BenchmarkDatabase.rows(ROWS)) {
+            raw.saveOrUpdate(r);
+        }
+        row = new BenchRow(ROWS / 2, null, 0);
+
+        safe = SafeDatabaseOperator.safe(raw);
+        queryCached = QueryCacheOperator.cached(safe);
+        CountingOperator<BenchRow> counter = CountingOperator.counting(safe, 0);
+        counter.registerCount(criteria);
+        counting = counter;
+    }
+
+    @Benchmark
+    public BenchRow rawRead() {
+        return raw.read(row);
+    }
+
+    @Benchmark
+    public BenchRow safeRead() {
+        return safe.read(row);
+    }
+
+    @Benchmark
+    public int rawCount() {
+        return raw.count(criteria);
+    }
+
+    @Benchmark
+    public int safeCount() {
+        return safe.count(criteria);
+    }
+
+    @Benchmark
+    public int queryCachedCount() {
+        return queryCached.count(criteria);
+    }
+
+    @Benchmark
+    public int countingCount() {
+        return counting.count(criteria);
+    }
+}
@@ -0,0 +1,107 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.*;
+
+public class AsyncChunkedWriteTest extends AsyncTestBase {
+
+    @Test
+    public void chunkedWriteGoesOnAfterResultOfZero() throws Exception {
+        async.enableChunkedWrites(10, 0);
+        operator.zeroForLists = true;
+        final BlockingQueue<Integer> progress = new LinkedBlockingQueue<>();
+        async.onListener(new AsyncDatabaseOperator.AsyncProgressListener() {
+            @Override
+            public void onProgress(int written, int total, Object src) {
+                progress.add(written);
+            }
+
+            @Override
+            public void onDone(int count, Object src) {
+                done.add(count);
+            }
+        }).saveOrUpdate(TestDatabase.rows(0, 35));
+
+        // the operator reports 0 for a list like BaseDatabaseOperator does
+        assertEquals(Collections.singletonList(0), awaitDone(1));
+        assertEquals(35, operator.rows.size());
+        assertEquals(Arrays.asList("save 10", "save 10", "save 10", "save 5"), operator.calls);
+        List<Integer> reported = new ArrayList<>();
+        progress.drainTo(reported);
+        assertEquals(Arrays.asList(10, 20, 30, 35), reported);
+    }
+
+    @Test
+    public void failedChunkEndsWrite() throws Exception {
+        async.enableChunkedWrites(10, 0);
+        operator.failAtCall = 2;
+        async.saveOrUpdate(TestDatabase.rows(0, 35));
+
+        awaitDone(1);
+        assertEquals(10, operator.rows.size());
+        assertEquals(2, operator.calls.size());
+    }
+
+    @Test
+    public void chunkedDeleteSplitsList() throws Exception {
+        async.enableChunkedWrites(10, 0);
+        for (TestRow row : TestDatabase.rows(0, 35)) {
+            operator.rows.put(row.id, row);
+        }
+        async.delete(TestDatabase.rows(0, 35));
+
+        assertEquals(Collections.singletonList(35), awaitDone(1));
+        assertTrue(operator.rows.isEmpty());
+        assertEquals(Arrays.asList("delete 10", "delete 10", "delete 10", "delete 5"), operator.calls);
+    }
+
+    @Test
+    public void queuedReadRunsBetweenChunks() throws Exception {
+        async.enableChunkedWrites(10, 0);
+        operator.rows.put(100L, new TestRow(100, "other", 0));
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = block();
+
+        async.onListener(new AsyncDatabaseOperator.AsyncProgressListener() {
+            @Override
+            public void onProgress(int written, int total, Object src) {
+                events.add("progress " + written);
+            }
+
+            @Override
+            public void onDone(int count, Object src) {
+                done.add(count);
+            }
+        }).saveOrUpdate(TestDatabase.rows(0, 30));
+        // a read of the writing thread would wait for its write
+        inThread(new Runnable() {
+            @Override
+            public void run() {
+                async.onReadListener(new AsyncDatabaseOperator.AsyncReadListener<TestRow>() {
+                    @Override
+                    public void onRead(int count, Object object, List<TestRow> rets) {
+                        events.add("read " + rets.get(0).name);
+                    }
+
+                    @Override
+                    public void onDone(int count, Object src) {
+                    }
+                }).read(new TestRow(100, null, 0));
+            }
+        });
+        gate.countDown();
+
+        // the read is done before the write
+        assertEquals(Arrays.asList(1, 30), awaitDone(2));
+        assertEquals(Arrays.asList("progress 10", "read other", "progress 20", "progress 30"), events);
+    }
+}
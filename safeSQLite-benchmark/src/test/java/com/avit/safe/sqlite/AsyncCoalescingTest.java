@@ -0,0 +1,82 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class AsyncCoalescingTest extends AsyncTestBase {
+
+    @Test
+    public void queuedSavesAreMerged() throws Exception {
+        async.enableWriteCoalescing(100, 0);
+        CountDownLatch gate = block();
+        for (int i = 0; i < 3; i++) {
+            async.saveOrUpdate(new TestRow(i, "row-" + i, 0));
+        }
+        gate.countDown();
+
+        // every caller is told about its own entity
+        assertEquals(Arrays.asList(1, 1, 1), awaitDone(3));
+        assertEquals(Collections.singletonList("save 3"), operator.calls);
+        assertEquals(3, operator.rows.size());
+    }
+
+    @Test
+    public void mergedSaveShortOfEntitiesReportsZero() throws Exception {
+        operator.zeroForLists = true;
+        async.enableWriteCoalescing(100, 0);
+        CountDownLatch gate = block();
+        async.saveOrUpdate(new TestRow(1, "a", 0));
+        async.saveOrUpdate(TestDatabase.rows(2, 2));
+        gate.countDown();
+
+        assertEquals(Arrays.asList(0, 0), awaitDone(2));
+        assertEquals(Collections.singletonList("save 3"), operator.calls);
+    }
+
+    @Test
+    public void failedMergedSaveReportsZero() throws Exception {
+        operator.failAtCall = 1;
+        async.enableWriteCoalescing(100, 0);
+        CountDownLatch gate = block();
+        async.saveOrUpdate(new TestRow(1, "a", 0));
+        async.saveOrUpdate(new TestRow(2, "b", 0));
+        gate.countDown();
+
+        assertEquals(Arrays.asList(0, 0), awaitDone(2));
+    }
+
+    @Test
+    public void mergingStopsAtBatchSizeAndOtherKinds() throws Exception {
+        async.enableWriteCoalescing(2, 0);
+        CountDownLatch gate = block();
+        async.saveOrUpdate(new TestRow(1, "a", 0));
+        async.saveOrUpdate(new TestRow(2, "b", 0));
+        async.saveOrUpdate(new TestRow(3, "c", 0));
+        async.delete(new TestRow(1, null, 0));
+        async.saveOrUpdate(new TestRow(4, "d", 0));
+        gate.countDown();
+
+        assertEquals(Arrays.asList(1, 1, 1, 1, 1), awaitDone(5));
+        assertEquals(Arrays.asList("save 2", "save c", "delete 1", "save d"), operator.calls);
+        assertEquals(3, operator.rows.size());
+    }
+
+    @Test
+    public void deletesAreNotMerged() throws Exception {
+        operator.rows.put(1L, new TestRow(1, "a", 0));
+        async.enableWriteCoalescing(100, 0);
+        CountDownLatch gate = block();
+        async.delete(new TestRow(1, null, 0));
+        async.delete(new TestRow(2, null, 0));
+        gate.countDown();
+
+        // the row that did not exist is not reported deleted
+        assertEquals(Arrays.asList(1, 0), awaitDone(2));
+        assertEquals(Arrays.asList("delete 1", "delete 1"), operator.calls);
+    }
+}
@@ -0,0 +1,75 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncPriorityTest extends AsyncTestBase {
+
+    @Test
+    public void higherPriorityRunsFirst() throws Exception {
+        CountDownLatch gate = block();
+        inThread(new Runnable() {
+            @Override
+            public void run() {
+                async.withPriority(AsyncDatabaseOperator.PRIORITY_LOW).saveOrUpdate(new TestRow(1, "low", 0));
+            }
+        });
+        inThread(new Runnable() {
+            @Override
+            public void run() {
+                async.withPriority(AsyncDatabaseOperator.PRIORITY_HIGH).saveOrUpdate(new TestRow(2, "high", 0));
+            }
+        });
+        gate.countDown();
+
+        awaitDone(2);
+        assertEquals(Arrays.asList("save high", "save low"), operator.calls);
+    }
+
+    @Test
+    public void writeDoesNotOvertakeEarlierWriteOfItsThread() throws Exception {
+        CountDownLatch gate = block();
+        async.withPriority(AsyncDatabaseOperator.PRIORITY_LOW).saveOrUpdate(new TestRow(1, "first", 0));
+        async.withPriority(AsyncDatabaseOperator.PRIORITY_HIGH).saveOrUpdate(new TestRow(1, "second", 0));
+        gate.countDown();
+
+        awaitDone(2);
+        assertEquals(Arrays.asList("save first", "save second"), operator.calls);
+        assertEquals("second", operator.rows.get(1L).name);
+    }
+
+    @Test
+    public void writeDoesNotOvertakeEarlierReadOfItsThread() throws Exception {
+        operator.rows.put(1L, new TestRow(1, "old", 0));
+        BlockingQueue<String> reads = new LinkedBlockingQueue<>();
+
+        CountDownLatch gate = block();
+        async.onReadListener(readListener(reads)).read(new TestRow(1, null, 0));
+        async.withPriority(AsyncDatabaseOperator.PRIORITY_HIGH).saveOrUpdate(new TestRow(1, "new", 0));
+        gate.countDown();
+
+        assertEquals("old", reads.poll(5, TimeUnit.SECONDS));
+        awaitDone(2);
+    }
+
+    @Test
+    public void readDoesNotOvertakeEarlierWriteOfItsThread() throws Exception {
+        operator.rows.put(1L, new TestRow(1, "old", 0));
+        BlockingQueue<String> reads = new LinkedBlockingQueue<>();
+
+        CountDownLatch gate = block();
+        async.withPriority(AsyncDatabaseOperator.PRIORITY_LOW).saveOrUpdate(new TestRow(1, "new", 0));
+        async.withPriority(AsyncDatabaseOperator.PRIORITY_HIGH).onReadListener(readListener(reads)).read(new TestRow(1, null, 0));
+        gate.countDown();
+
+        assertEquals("new", reads.poll(5, TimeUnit.SECONDS));
+        awaitDone(2);
+    }
+}
@@ -0,0 +1,47 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncQueueCapacityTest extends AsyncTestBase {
+
+    @Test
+    public void droppedReadReleasesWriteChainedAfterIt() throws Exception {
+        final BlockingQueue<String> reads = new LinkedBlockingQueue<>();
+        async.enableConcurrentReads(1);
+
+        // the only reader is held, so the next read stays queued
+        operator.readStarted = new CountDownLatch(1);
+        operator.readGate = new CountDownLatch(1);
+        async.onReadListener(readListener(reads)).read(new TestRow(1, null, 0));
+        assertTrue(operator.readStarted.await(5, TimeUnit.SECONDS));
+
+        async.onReadListener(readListener(reads)).read(new TestRow(2, null, 0));
+        // chained after the queued read of this thread, the writer waits for it
+        async.saveOrUpdate(new TestRow(3, "write", 0));
+        async.setQueueCapacity(2, AsyncDatabaseOperator.OVERFLOW_DROP_OLDEST_READ);
+
+        inThread(new Runnable() {
+            @Override
+            public void run() {
+                async.onReadListener(readListener(reads)).read(new TestRow(4, null, 0));
+            }
+        });
+
+        assertEquals(Collections.singletonList(1), awaitDone(1));
+        assertEquals(Collections.singletonList("save write"), operator.calls);
+        assertEquals(1, operator.readGate.getCount());
+
+        operator.readGate.countDown();
+        assertNotNull(reads.poll(5, TimeUnit.SECONDS));
+        assertNotNull(reads.poll(5, TimeUnit.SECONDS));
+        assertNull(reads.poll(100, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,100 @@
+package com.avit.safe.sqlite;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * An {@link AsyncDatabaseOperator} over a {@link RecordingOperator}, its callbacks collected in
+ * {@link #done}.
+ */
+abstract class AsyncTestBase {
+
+    RecordingOperator operator;
+    AsyncDatabaseOperator<TestRow> async;
+    final BlockingQueue<Integer> done = new LinkedBlockingQueue<>();
+    private final AsyncDatabaseOperator.AsyncListener listener = new AsyncDatabaseOperator.AsyncListener() {
+        @Override
+        public void onDone(int count, Object src) {
+            done.add(count);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        operator = new RecordingOperator();
+        async = AsyncDatabaseOperator.async(operator);
+        async.setListener(listener);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // the executor threads are left to the JVM, wait for what is still queued
+        final CountDownLatch idle = new CountDownLatch(1);
+        async.execute(new Runnable() {
+            @Override
+            public void run() {
+                idle.countDown();
+            }
+        }, null);
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Holds the writer thread until the returned latch is counted down.
+     */
+    CountDownLatch block() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        async.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    List<Integer> awaitDone(int calls) throws InterruptedException {
+        List<Integer> counts = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            Integer count = done.poll(5, TimeUnit.SECONDS);
+            assertNotNull("call " + i + " of " + calls + " not done", count);
+            counts.add(count);
+        }
+        return counts;
+    }
+
+    static AsyncDatabaseOperator.AsyncReadListener<TestRow> readListener(final BlockingQueue<String> names) {
+        return new AsyncDatabaseOperator.AsyncReadListener<TestRow>() {
+            @Override
+            public void onRead(int count, Object object, List<TestRow> rets) {
+                names.add(rets.isEmpty() ? "" : rets.get(0).name);
+            }
+
+            @Override
+            public void onDone(int count, Object src) {
+            }
+        };
+    }
+
+    static void inThread(Runnable runnable) throws InterruptedException {
+        Thread thread = new Thread(runnable);
+        thread.start();
+        thread.join();
+    }
+}
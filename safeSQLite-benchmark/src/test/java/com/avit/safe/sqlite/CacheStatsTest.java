@@ -0,0 +1,108 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CacheStatsTest {
+
+    private RecordingOperator operator;
+    private BaseDatabaseOperator.Cache<Long, TestRow> cache;
+    private final List<String> removals = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        operator = CacheTest.cached(new BaseDatabaseOperator.Cache.Builder<Long, TestRow>()
+                .maximumSize(2).readThrough(0));
+        cache = operator.getMemoryCache();
+        cache.setRemovalListener(new RemovalListener<Long, TestRow>() {
+            @Override
+            public void onRemoval(Long key, TestRow row, int cause) {
+                removals.add(cause + " " + row.name);
+            }
+        });
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        operator.saveOrUpdate(new TestRow(1, "one", 0));
+        assertNotNull(cache.getCache(1L));
+        assertNotNull(cache.getCache(1L));
+        assertNull(cache.getCache(2L));
+
+        CacheStats stats = cache.stats();
+        assertEquals(2, stats.hitCount);
+        assertEquals(1, stats.missCount);
+        assertEquals(2.0 / 3, stats.hitRate(), 1e-9);
+        assertEquals(1, stats.weight);
+        assertEquals(2, stats.maximumWeight);
+    }
+
+    @Test
+    public void loadsAndFailures() {
+        operator.rows.put(1L, new TestRow(1, "one", 0));
+        assertEquals("one", cache.loadCache(1L).name);
+        assertEquals("one", cache.loadCache(1L).name);
+
+        operator.failLoads = true;
+        try {
+            cache.loadCache(2L);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        CacheStats stats = cache.stats();
+        assertEquals(2, stats.loadCount);
+        assertEquals(1, stats.loadFailureCount);
+        assertEquals(1, stats.hitCount);
+        assertEquals(2, stats.missCount);
+    }
+
+    @Test
+    public void removalCauses() {
+        operator.saveOrUpdate(new TestRow(1, "one", 0));
+        operator.saveOrUpdate(new TestRow(1, "uno", 0));
+        operator.saveOrUpdate(new TestRow(2, "two", 0));
+        operator.saveOrUpdate(new TestRow(3, "three", 0));
+        operator.delete(new TestRow(2, null, 0));
+
+        assertEquals(Arrays.asList(
+                RemovalListener.CAUSE_REPLACED + " one",
+                RemovalListener.CAUSE_SIZE + " uno",
+                RemovalListener.CAUSE_EXPLICIT + " two"), removals);
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.removalCount(RemovalListener.CAUSE_REPLACED));
+        assertEquals(1, stats.removalCount(RemovalListener.CAUSE_EXPLICIT));
+        assertEquals(1, stats.evictionCount());
+    }
+
+    @Test
+    public void clearingIsExplicit() {
+        operator.saveOrUpdate(Arrays.asList(new TestRow(1, "one", 0), new TestRow(2, "two", 0)));
+        operator.delete();
+
+        assertEquals(2, cache.stats().removalCount(RemovalListener.CAUSE_EXPLICIT));
+        assertEquals(0, cache.stats().evictionCount());
+    }
+
+    @Test
+    public void throwingListenerDoesNotFailWrites() {
+        cache.setRemovalListener(new RemovalListener<Long, TestRow>() {
+            @Override
+            public void onRemoval(Long key, TestRow row, int cause) {
+                throw new IllegalStateException("listener");
+            }
+        });
+        operator.saveOrUpdate(new TestRow(1, "one", 0));
+        operator.saveOrUpdate(new TestRow(1, "uno", 0));
+
+        assertEquals("uno", cache.getCache(1L).name);
+        assertEquals(1, cache.stats().removalCount(RemovalListener.CAUSE_REPLACED));
+    }
+}
@@ -0,0 +1,57 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CacheTest {
+
+    static final Weigher<Long, TestRow> NAME_LENGTH = new Weigher<Long, TestRow>() {
+        @Override
+        public int weigh(Long key, TestRow row) {
+            return row.name.length();
+        }
+    };
+
+    static RecordingOperator cached(BaseDatabaseOperator.Cache.Builder<Long, TestRow> builder) {
+        RecordingOperator operator = new RecordingOperator(builder);
+        operator.getMemoryCache().enableMemoryCache();
+        return operator;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void weightBudgetNeedsWeigher() {
+        new RecordingOperator(new BaseDatabaseOperator.Cache.Builder<Long, TestRow>().maximumWeight(100));
+    }
+
+    @Test
+    public void weigherSetsCacheWeight() {
+        RecordingOperator operator = cached(new BaseDatabaseOperator.Cache.Builder<Long, TestRow>()
+                .weigher(NAME_LENGTH).maximumWeight(10));
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        assertEquals(10, cache.maximumWeight());
+
+        operator.saveOrUpdate(Arrays.asList(new TestRow(1, "abcd", 0), new TestRow(2, "efgh", 0)));
+        assertEquals(8, cache.weight());
+
+        operator.saveOrUpdate(new TestRow(3, "ijkl", 0));
+        assertNull(cache.getCache(1L));
+        assertNotNull(cache.getCache(3L));
+        assertEquals(8, cache.weight());
+    }
+
+    @Test
+    public void weigherDefaultsToHeapFraction() {
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = new RecordingOperator(
+                new BaseDatabaseOperator.Cache.Builder<Long, TestRow>().weigher(NAME_LENGTH)).getMemoryCache();
+        long eighth = Runtime.getRuntime().maxMemory() / 8;
+        assertEquals(Math.min(Integer.MAX_VALUE, eighth), cache.maximumWeight());
+
+        cache = new RecordingOperator(new BaseDatabaseOperator.Cache.Builder<Long, TestRow>()
+                .weigher(NAME_LENGTH).maximumHeapFraction(0.25)).getMemoryCache();
+        assertEquals(Math.min(Integer.MAX_VALUE, (long) (Runtime.getRuntime().maxMemory() * 0.25)),
+                cache.maximumWeight());
+    }
+}
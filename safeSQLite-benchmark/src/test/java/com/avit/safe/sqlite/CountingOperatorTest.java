@@ -0,0 +1,107 @@
+package com.avit.safe.sqlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.avit.safe.sqlite.CriteriaCompilerTest.criteria;
+import static org.junit.Assert.*;
+
+public class CountingOperatorTest {
+
+    private TestDatabase database;
+    private SQLiteDatabaseOperator<Long, TestRow> operator;
+    private CountingOperator<TestRow> counting;
+    private final Map<String, Object> thirty = criteria("value", 30L);
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase();
+        operator = database.operator();
+        operator.saveOrUpdate(TestDatabase.rows(0, 10));
+        counting = CountingOperator.counting(operator, 0);
+        counting.registerCount(thirty);
+    }
+
+    @After
+    public void tearDown() {
+        operator.close();
+        database.close();
+    }
+
+    /**
+     * Adds a row the counters do not see.
+     */
+    private void insertBehind(long id, long value) {
+        database.db.execSQL("INSERT INTO test_row (id, name, value) VALUES (" + id + ", 'behind', " + value + ")");
+    }
+
+    @Test
+    public void totalFollowsDeletesWithoutCounting() {
+        assertEquals(10, counting.count());
+        insertBehind(100, 0);
+        assertEquals(10, counting.count());
+
+        assertEquals(1, counting.delete(new TestRow(1, null, 0)));
+        assertEquals(2, counting.delete(Arrays.asList(new TestRow(2, null, 0), new TestRow(99, null, 0),
+                new TestRow(4, null, 0))));
+        assertEquals(1, counting.delete(criteria("value", 50L)));
+        assertEquals(6, counting.count());
+
+        counting.resync();
+        assertEquals(7, counting.count());
+    }
+
+    @Test
+    public void deleteOfMissingRowKeepsCounters() {
+        assertEquals(10, counting.count());
+        assertEquals(1, counting.count(thirty));
+        insertBehind(100, 30);
+
+        assertEquals(0, counting.delete(new TestRow(99, null, 0)));
+        assertEquals(10, counting.count());
+        assertEquals(1, counting.count(thirty));
+    }
+
+    @Test
+    public void deleteByKeyOnlyEntityCountsFilterAgain() {
+        assertEquals(1, counting.count(thirty));
+
+        // the stub does not carry the value the filter matches on
+        counting.delete(new TestRow(3, null, 0));
+        assertEquals(0, counting.count(thirty));
+
+        counting.saveOrUpdate(new TestRow(3, "back", 30));
+        counting.delete(Arrays.asList(new TestRow(3, null, 0)));
+        assertEquals(0, counting.count(thirty));
+    }
+
+    @Test
+    public void savesMarkCountersStale() {
+        assertEquals(10, counting.count());
+        assertEquals(1, counting.count(thirty));
+
+        counting.saveOrUpdate(new TestRow(20, "new", 30));
+        assertEquals(11, counting.count());
+        assertEquals(2, counting.count(thirty));
+
+        counting.saveOrUpdate(Arrays.asList(new TestRow(20, "moved", 0), new TestRow(21, "new", 30)));
+        assertEquals(12, counting.count());
+        assertEquals(2, counting.count(thirty));
+    }
+
+    @Test
+    public void unregisteredCriteriaAreCounted() {
+        Map<String, Object> forty = criteria("value", 40L);
+        assertEquals(1, counting.count(forty));
+        insertBehind(100, 40);
+        assertEquals(2, counting.count(forty));
+
+        counting.unregisterCount(thirty);
+        insertBehind(101, 30);
+        assertEquals(2, counting.count(thirty));
+    }
+}
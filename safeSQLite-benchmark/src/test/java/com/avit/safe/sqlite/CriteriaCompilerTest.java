@@ -0,0 +1,118 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CriteriaCompilerTest {
+
+    private final CriteriaCompiler compiler = new CriteriaCompiler("test_row",
+            new HashSet<>(Arrays.asList("id", "name", "value")));
+
+    @Test
+    public void sameShapeSharesClause() {
+        CriteriaCompiler.Filter a = compiler.compile(criteria("name", "a", "value", Condition.gt(1)));
+        CriteriaCompiler.Filter b = compiler.compile(criteria("value", Condition.gt(7), "name", "b"));
+
+        assertEquals(a.shape, b.shape);
+        assertEquals(" WHERE name = ? AND value > ?", compiler.where(a.shape));
+        assertArrayEquals(new Object[]{"b", 7}, b.values);
+        assertEquals(1, compiler.size());
+    }
+
+    @Test
+    public void operators() {
+        assertEquals(" WHERE id IS NULL", where(criteria("id", null)));
+        assertEquals(" WHERE id IS NOT NULL", where(criteria("id", Condition.notNull())));
+        assertEquals(" WHERE id <> ?", where(criteria("id", Condition.ne(1))));
+        assertEquals(" WHERE id BETWEEN ? AND ?", where(criteria("id", Condition.between(1, 2))));
+        assertEquals(" WHERE 0", where(criteria("id", Collections.emptyList())));
+        assertEquals("", where(null));
+    }
+
+    @Test
+    public void inListsArePaddedToPowerOfTwo() {
+        CriteriaCompiler.Filter three = compiler.compile(criteria("id", Arrays.asList(1, 2, 3)));
+        CriteriaCompiler.Filter four = compiler.compile(criteria("id", Arrays.asList(5, 6, 7, 8)));
+
+        assertEquals(three.shape, four.shape);
+        assertEquals(" WHERE id IN (?, ?, ?, ?)", compiler.where(three.shape));
+        assertArrayEquals(new Object[]{1, 2, 3, 3}, three.values);
+    }
+
+    @Test
+    public void paddingStopsAtVariableLimit() {
+        List<CriteriaCompiler.Filter> filters = compiler.compile(criteria("id", ids(0, 600), "name", "a"), 2);
+
+        assertEquals(1, filters.size());
+        assertEquals(CriteriaCompiler.MAX_VARIABLES - 2, filters.get(0).values.length);
+        assertEquals(Arrays.asList(CriteriaCompiler.MAX_VARIABLES - 3, 1), arities(filters.get(0)));
+    }
+
+    @Test
+    public void longListsAreSplitIntoDisjointParts() {
+        List<Object> ids = ids(0, 2500);
+        ids.addAll(ids(0, 10));
+        List<CriteriaCompiler.Filter> filters = compiler.compile(criteria("id", ids), 0);
+
+        assertTrue(filters.size() > 1);
+        Set<Object> seen = new HashSet<>();
+        int distinct = 0;
+        for (CriteriaCompiler.Filter filter : filters) {
+            assertTrue(filter.values.length <= CriteriaCompiler.MAX_VARIABLES);
+            Set<Object> part = new HashSet<>(Arrays.asList(filter.values));
+            for (Object id : part) {
+                assertTrue("in two parts: " + id, seen.add(id));
+            }
+            distinct += part.size();
+        }
+        assertEquals(2500, distinct);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void singleFilterRefusesToSplit() {
+        compiler.compile(criteria("id", ids(0, 1000)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownColumn() {
+        compiler.compile(criteria("missing", 1));
+    }
+
+    private String where(Map<String, Object> criteria) {
+        return compiler.where(compiler.compile(criteria).shape);
+    }
+
+    private static List<Integer> arities(CriteriaCompiler.Filter filter) {
+        List<Integer> arities = new ArrayList<>();
+        for (int arity : filter.shape.arities) {
+            arities.add(arity);
+        }
+        return arities;
+    }
+
+    static List<Object> ids(int from, int count) {
+        List<Object> ids = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            ids.add((long) i);
+        }
+        return ids;
+    }
+
+    static Map<String, Object> criteria(Object... pairs) {
+        Map<String, Object> criteria = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            criteria.put((String) pairs[i], pairs[i + 1]);
+        }
+        return criteria;
+    }
+}
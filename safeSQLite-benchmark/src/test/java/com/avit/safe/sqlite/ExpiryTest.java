@@ -0,0 +1,147 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ExpiryTest {
+
+    /**
+     * Holds refreshes until {@link #runAll()}.
+     */
+    private static final class ManualExecutor implements Executor {
+        final List<Runnable> queued = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            queued.add(command);
+        }
+
+        synchronized int runAll() {
+            int ran = queued.size();
+            for (Runnable r : queued) {
+                r.run();
+            }
+            queued.clear();
+            return ran;
+        }
+    }
+
+    private final ManualExecutor refresher = new ManualExecutor();
+
+    private static BaseDatabaseOperator.Cache.Builder<Long, TestRow> builder() {
+        return new BaseDatabaseOperator.Cache.Builder<>();
+    }
+
+    @Test
+    public void expiresAfterWrite() throws Exception {
+        RecordingOperator operator = CacheTest.cached(builder().expireAfterWrite(50));
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        operator.saveOrUpdate(new TestRow(1, "one", 0));
+        assertNotNull(cache.getCache(1L));
+
+        Thread.sleep(100);
+        assertNull(cache.getCache(1L));
+        assertEquals(1, cache.stats().removalCount(RemovalListener.CAUSE_EXPIRED));
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void readsKeepAccessedEntity() throws Exception {
+        RecordingOperator operator = CacheTest.cached(builder().expireAfterAccess(200));
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        operator.saveOrUpdate(new TestRow(1, "read", 0));
+        operator.saveOrUpdate(new TestRow(2, "idle", 0));
+
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(50);
+            assertNotNull(cache.getCache(1L));
+        }
+        assertNull(cache.getCache(2L));
+    }
+
+    @Test
+    public void refreshReloadsInBackground() throws Exception {
+        RecordingOperator operator = CacheTest.cached(builder().refreshAfterWrite(50).refreshExecutor(refresher));
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        operator.saveOrUpdate(new TestRow(1, "old", 0));
+        operator.rows.put(1L, new TestRow(1, "new", 0));
+        assertEquals("old", cache.getCache(1L).name);
+        assertEquals(0, refresher.runAll());
+
+        Thread.sleep(100);
+        assertEquals("old", cache.getCache(1L).name);
+        // one refresh per key at a time
+        assertEquals("old", cache.getCache(1L).name);
+        assertEquals(1, refresher.runAll());
+        assertEquals("new", cache.getCache(1L).name);
+        assertEquals(1, cache.stats().loadCount);
+    }
+
+    @Test
+    public void refreshRacingWriteOfItsKeyIsNotCached() throws Exception {
+        RecordingOperator operator = CacheTest.cached(builder().refreshAfterWrite(50).refreshExecutor(refresher));
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        operator.saveOrUpdate(new TestRow(1, "old", 0));
+        Thread.sleep(100);
+        cache.getCache(1L);
+
+        operator.saveOrUpdate(new TestRow(1, "written", 0));
+        // what the refresh reads was there before the write
+        operator.rows.put(1L, new TestRow(1, "stale", 0));
+        refresher.runAll();
+        assertEquals("written", cache.getCache(1L).name);
+    }
+
+    @Test
+    public void refreshIsCachedWhileOtherKeysAreWritten() throws Exception {
+        RecordingOperator operator = CacheTest.cached(builder().refreshAfterWrite(50).refreshExecutor(refresher));
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        operator.saveOrUpdate(new TestRow(1, "old", 0));
+        operator.rows.put(1L, new TestRow(1, "new", 0));
+        Thread.sleep(100);
+        cache.getCache(1L);
+
+        operator.saveOrUpdate(new TestRow(2, "other", 0));
+        operator.delete(new TestRow(3, null, 0));
+        refresher.runAll();
+        assertEquals("new", cache.getCache(1L).name);
+    }
+
+    @Test
+    public void refreshOfDeletedRowDropsIt() throws Exception {
+        RecordingOperator operator = CacheTest.cached(builder().refreshAfterWrite(50).refreshExecutor(refresher));
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        operator.saveOrUpdate(new TestRow(1, "old", 0));
+        operator.rows.remove(1L);
+        Thread.sleep(100);
+        assertEquals("old", cache.getCache(1L).name);
+
+        refresher.runAll();
+        assertNull(cache.getCache(1L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refreshNeedsLoad() {
+        new BaseDatabaseOperator<Long, TestRow>(builder().refreshAfterWrite(50)) {
+            @Override
+            public String getLogTag() {
+                return "NoLoad";
+            }
+        };
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void readThroughNeedsLoad() {
+        new BaseDatabaseOperator<Long, TestRow>(builder().readThrough(0)) {
+            @Override
+            public String getLogTag() {
+                return "NoLoad";
+            }
+        };
+    }
+}
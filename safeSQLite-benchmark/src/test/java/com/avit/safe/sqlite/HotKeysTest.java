@@ -0,0 +1,103 @@
+package com.avit.safe.sqlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HotKeysTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("safe-sqlite-hot-keys-", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private RecordingOperator operator() {
+        return CacheTest.cached(new BaseDatabaseOperator.Cache.Builder<Long, TestRow>()
+                .hotKeys(file, KeyCodec.LONG, 0));
+    }
+
+    /**
+     * @return an operator whose rows are those saved by a previous one
+     */
+    private RecordingOperator restarted() {
+        RecordingOperator before = operator();
+        for (long id = 1; id <= 3; id++) {
+            before.saveOrUpdate(new TestRow(id, "row-" + id, 0));
+        }
+        assertTrue(before.getMemoryCache().saveHotKeys());
+
+        RecordingOperator after = operator();
+        for (long id = 1; id <= 3; id++) {
+            after.rows.put(id, new TestRow(id, "row-" + id, 0));
+        }
+        return after;
+    }
+
+    private static void awaitLoads(RecordingOperator operator, int loads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (operator.loads.get() < loads && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // the batch is cached right after its last load
+        Thread.sleep(50);
+    }
+
+    @Test
+    public void warmUpLoadsSavedKeys() throws Exception {
+        RecordingOperator operator = restarted();
+        operator.getMemoryCache().warmUp();
+        awaitLoads(operator, 3);
+
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        assertEquals(3, cache.weight());
+        assertEquals("row-2", cache.getCache(2L).name);
+    }
+
+    @Test
+    public void warmUpSkipsOnlyKeysWrittenMeanwhile() throws Exception {
+        RecordingOperator operator = restarted();
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        operator.loadStarted = new CountDownLatch(1);
+        operator.loadGate = new CountDownLatch(1);
+        cache.warmUp();
+        assertTrue(operator.loadStarted.await(5, TimeUnit.SECONDS));
+
+        // the batch holds every key, whichever the first load was
+        operator.saveOrUpdate(new TestRow(2, "written", 0));
+        cache.evictCache(2L);
+        operator.rows.put(2L, new TestRow(2, "stale", 0));
+        operator.loadGate.countDown();
+        awaitLoads(operator, 3);
+
+        assertNull(cache.getCache(2L));
+        assertEquals("row-1", cache.getCache(1L).name);
+        assertEquals("row-3", cache.getCache(3L).name);
+    }
+
+    @Test
+    public void warmUpKeepsNewerCachedEntity() throws Exception {
+        RecordingOperator operator = restarted();
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = operator.getMemoryCache();
+        operator.saveOrUpdate(new TestRow(3, "newer", 0));
+        operator.rows.put(3L, new TestRow(3, "row-3", 0));
+        cache.warmUp();
+        awaitLoads(operator, 3);
+
+        assertEquals("newer", cache.getCache(3L).name);
+        assertEquals(3, cache.weight());
+    }
+}
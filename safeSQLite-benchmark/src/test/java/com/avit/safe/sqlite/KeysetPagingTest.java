@@ -0,0 +1,163 @@
+package com.avit.safe.sqlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.avit.safe.sqlite.CriteriaCompilerTest.criteria;
+import static com.avit.safe.sqlite.CriteriaCompilerTest.ids;
+import static org.junit.Assert.*;
+
+public class KeysetPagingTest {
+
+    private TestDatabase database;
+    private SQLiteDatabaseOperator<Long, TestRow> operator;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase();
+        operator = database.operator();
+    }
+
+    @After
+    public void tearDown() {
+        operator.close();
+        database.close();
+    }
+
+    private static List<Object> pageIds(IPageOperation<TestRow> operation, int pageSize, Map<String, Object> objects) {
+        List<Object> ids = new ArrayList<>();
+        String token = null;
+        do {
+            Page<TestRow> page = operation.readPage(pageSize, token, objects);
+            for (TestRow row : page) {
+                ids.add(row.id);
+            }
+            token = page.getNextToken();
+        } while (token != null);
+        return ids;
+    }
+
+    @Test
+    public void keysetPaging() {
+        operator.saveOrUpdate(TestDatabase.rows(0, 25));
+
+        List<Long> ids = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        do {
+            Page<TestRow> page = operator.readPage(10, token, criteria("value", Condition.ge(0)));
+            for (TestRow row : page) {
+                ids.add(row.id);
+            }
+            token = page.getNextToken();
+            pages++;
+        } while (token != null);
+
+        assertEquals(3, pages);
+        assertEquals(ids(0, 25), new ArrayList<Object>(ids));
+    }
+
+    @Test
+    public void lastFullPageIsFollowedByEmptyOne() {
+        operator.saveOrUpdate(TestDatabase.rows(0, 20));
+
+        Page<TestRow> second = operator.readPage(10, operator.readPage(10, null, null).getNextToken(), null);
+        assertEquals(10, second.size());
+        assertTrue(second.hasNext());
+
+        Page<TestRow> third = operator.readPage(10, second.getNextToken(), null);
+        assertEquals(0, third.size());
+        assertFalse(third.hasNext());
+    }
+
+    @Test
+    public void longInListsArePaged() {
+        operator.saveOrUpdate(TestDatabase.rows(0, 2500));
+        List<Object> ids = ids(0, 2500);
+        ids.addAll(ids(0, 100));
+
+        assertEquals(ids(0, 2500), pageIds(operator, 700, criteria("id", ids)));
+    }
+
+    @Test
+    public void decoratorsPageThroughWrappedOperation() {
+        operator.saveOrUpdate(TestDatabase.rows(0, 25));
+        IPageOperation<TestRow> decorated = QueryCacheOperator.cached(
+                CountingOperator.counting(SafeDatabaseOperator.safe(operator), 0));
+
+        assertEquals(ids(5, 20), pageIds(decorated, 7, criteria("value", Condition.ge(50))));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void decoratorOverPlainOperationRejectsPaging() {
+        CountingOperator.counting(plain(operator), 0).readPage(10, null, null);
+    }
+
+    @Test
+    public void asyncPageReachesReadListener() throws Exception {
+        operator.saveOrUpdate(TestDatabase.rows(0, 25));
+        final BlockingQueue<List<TestRow>> pages = new LinkedBlockingQueue<>();
+        AsyncDatabaseOperator<TestRow> async = AsyncDatabaseOperator.async(operator);
+        async.setReadListener(new AsyncDatabaseOperator.AsyncReadListener<TestRow>() {
+            @Override
+            public void onRead(int count, Object object, List<TestRow> rets) {
+                pages.add(rets);
+            }
+
+            @Override
+            public void onDone(int count, Object src) {
+            }
+        });
+
+        assertTrue(async.readPage(10, null, null).isEmpty());
+        Page<TestRow> page = (Page<TestRow>) pages.poll(5, TimeUnit.SECONDS);
+        assertEquals(10, page.size());
+
+        async.readPage(10, page.getNextToken(), null);
+        page = (Page<TestRow>) pages.poll(5, TimeUnit.SECONDS);
+        assertEquals(10, page.get(0).id);
+    }
+
+    @Test
+    public void tokensRoundTrip() {
+        assertNull(Page.decode(null));
+        assertEquals(42L, Page.decode(Page.encode(42L)));
+        assertEquals(42, Page.decode(Page.encode(42)));
+        assertEquals("a:b", Page.decode(Page.encode("a:b")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badTokenIsRejected() {
+        Page.decode("lx");
+    }
+
+    /**
+     * operation seen as a plain IDatabaseOperation.
+     */
+    @SuppressWarnings("unchecked")
+    private static IDatabaseOperation<TestRow> plain(final IDatabaseOperation<TestRow> operation) {
+        return (IDatabaseOperation<TestRow>) Proxy.newProxyInstance(KeysetPagingTest.class.getClassLoader(),
+                new Class<?>[]{IDatabaseOperation.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        try {
+                            return method.invoke(operation, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+}
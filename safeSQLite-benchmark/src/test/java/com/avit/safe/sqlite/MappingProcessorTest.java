@@ -0,0 +1,253 @@
+package com.avit.safe.sqlite;
+
+import com.avit.safe.sqlite.compiler.MappingProcessor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.*;
+
+public class MappingProcessorTest {
+
+    @Table
+    static class Sample {
+        @Key
+        String code;
+        @Column
+        boolean flag;
+        @Column
+        int count;
+        @Column
+        short small;
+        @Column
+        byte tiny;
+        @Column
+        double ratio;
+        @Column
+        float weight;
+        @Column
+        byte[] blob;
+        @Column
+        Long total;
+        @Column
+        Integer rank;
+        @Column
+        Boolean seen;
+        @Column
+        Double score;
+        @Column
+        Float share;
+        @Column("label_text")
+        private String label;
+
+        public String getLabel() {
+            return label;
+        }
+
+        public void setLabel(String label) {
+            this.label = label;
+        }
+    }
+
+    private TestDatabase database;
+    private SQLiteDatabaseOperator<String, Sample> operator;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase();
+        database.db.execSQL("CREATE TABLE Sample (code TEXT PRIMARY KEY, flag INTEGER, count INTEGER, small INTEGER,"
+                + " tiny INTEGER, ratio REAL, weight REAL, blob BLOB, total INTEGER, rank INTEGER, seen INTEGER,"
+                + " score REAL, share REAL, label_text TEXT)");
+        operator = new SQLiteDatabaseOperator<>(database.db, MappingProcessorTest_Sample_Mapping.INSTANCE);
+    }
+
+    @After
+    public void tearDown() {
+        operator.close();
+        database.close();
+    }
+
+    private static Sample sample(String code) {
+        Sample sample = new Sample();
+        sample.code = code;
+        return sample;
+    }
+
+    @Test
+    public void describesTable() {
+        TableMapping<String, Sample> mapping = MappingProcessorTest_Sample_Mapping.INSTANCE;
+
+        assertEquals("Sample", mapping.table());
+        assertEquals("code", mapping.keyColumn());
+        assertEquals(Arrays.asList("code", "flag", "count", "small", "tiny", "ratio", "weight", "blob", "total",
+                "rank", "seen", "score", "share", "label_text"), Arrays.asList(mapping.columns()));
+        assertEquals("a", mapping.key(sample("a")));
+
+        // a copy, callers can not change the mapping
+        mapping.columns()[0] = "changed";
+        assertEquals("code", mapping.columns()[0]);
+    }
+
+    @Test
+    public void valuesRoundTrip() {
+        Sample sample = sample("a");
+        sample.flag = true;
+        sample.count = Integer.MIN_VALUE;
+        sample.small = Short.MAX_VALUE;
+        sample.tiny = -7;
+        sample.ratio = 0.125;
+        sample.weight = 2.5f;
+        sample.blob = new byte[]{1, 2, 3};
+        sample.total = Long.MAX_VALUE;
+        sample.rank = 3;
+        sample.seen = false;
+        sample.score = -1.5;
+        sample.share = 0.25f;
+        sample.setLabel("label");
+        operator.saveOrUpdate(sample);
+
+        Sample read = operator.read(sample("a"));
+        assertTrue(read.flag);
+        assertEquals(Integer.MIN_VALUE, read.count);
+        assertEquals(Short.MAX_VALUE, read.small);
+        assertEquals(-7, read.tiny);
+        assertEquals(0.125, read.ratio, 0);
+        assertEquals(2.5f, read.weight, 0);
+        assertArrayEquals(new byte[]{1, 2, 3}, read.blob);
+        assertEquals(Long.valueOf(Long.MAX_VALUE), read.total);
+        assertEquals(Integer.valueOf(3), read.rank);
+        assertEquals(Boolean.FALSE, read.seen);
+        assertEquals(Double.valueOf(-1.5), read.score);
+        assertEquals(Float.valueOf(0.25f), read.share);
+        assertEquals("label", read.getLabel());
+    }
+
+    @Test
+    public void boxedAndReferenceColumnsKeepNull() {
+        operator.saveOrUpdate(sample("a"));
+
+        Sample read = operator.read(sample("a"));
+        assertFalse(read.flag);
+        assertEquals(0, read.count);
+        assertNull(read.blob);
+        assertNull(read.total);
+        assertNull(read.rank);
+        assertNull(read.seen);
+        assertNull(read.score);
+        assertNull(read.share);
+        assertNull(read.getLabel());
+        assertEquals(1, operator.count(CriteriaCompilerTest.criteria("total", Condition.isNull())));
+    }
+
+    @Test
+    public void generatesMappingForValidEntity() {
+        assertEquals(Collections.<String>emptyList(), errors("package p;\n"
+                + "import com.avit.safe.sqlite.*;\n"
+                + "@Table(\"t\") class E {\n"
+                + "    @Key private long id;\n"
+                + "    public long getId() { return id; }\n"
+                + "    public void setId(long id) { this.id = id; }\n"
+                + "}\n"));
+    }
+
+    @Test
+    public void rejectsEntityWithoutKey() {
+        assertEquals(Collections.singletonList("no @Key in E"), errors("package p;\n"
+                + "import com.avit.safe.sqlite.*;\n"
+                + "@Table class E { @Column long id; }\n"));
+    }
+
+    @Test
+    public void rejectsUnsupportedType() {
+        assertEquals(Collections.singletonList("unsupported column type java.util.Date"), errors("package p;\n"
+                + "import com.avit.safe.sqlite.*;\n"
+                + "@Table class E { @Key long id; @Column java.util.Date when; }\n"));
+    }
+
+    @Test
+    public void rejectsPrivateFieldWithoutAccessors() {
+        assertEquals(Collections.singletonList("private field flag needs isFlag() and setFlag(..)"), errors("package p;\n"
+                + "import com.avit.safe.sqlite.*;\n"
+                + "@Table class E { @Key long id; @Column private boolean flag; }\n"));
+    }
+
+    @Test
+    public void rejectsInnerEntity() {
+        assertEquals(Collections.singletonList("nested @Table entities must be static"), errors("package p;\n"
+                + "import com.avit.safe.sqlite.*;\n"
+                + "class Outer { @Table class E { @Key long id; } }\n"));
+    }
+
+    @Test
+    public void rejectsEntityWithoutDefaultConstructor() {
+        assertEquals(Collections.singletonList("@Table entities need a constructor without arguments that is not private"),
+                errors("package p;\n"
+                        + "import com.avit.safe.sqlite.*;\n"
+                        + "@Table class E { @Key long id; E(long id) { this.id = id; } }\n"));
+    }
+
+    /**
+     * Runs the processor alone over source.
+     *
+     * @return the messages of the errors it reported
+     */
+    private static List<String> errors(final String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("tests need a JDK", compiler);
+
+        File generated;
+        try {
+            generated = File.createTempFile("mapping-", "");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        assertTrue(generated.delete() && generated.mkdir());
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///Source.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-proc:only", "-s", generated.getPath(), "-cp", System.getProperty("java.class.path")),
+                null, Collections.singletonList(file));
+        task.setProcessors(Collections.singletonList(new MappingProcessor()));
+        task.call();
+
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                errors.add(diagnostic.getMessage(null));
+        }
+        delete(generated);
+        return errors;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,177 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MemoryCacheTest {
+
+    private static final Weigher<String, String> LENGTH = new Weigher<String, String>() {
+        @Override
+        public int weigh(String key, String value) {
+            return value.length();
+        }
+    };
+
+    private final List<String> evicted = Collections.synchronizedList(new ArrayList<String>());
+
+    private MemoryCache<String, String> cache(int maxWeight) {
+        return new MemoryCache<String, String>(maxWeight, LENGTH) {
+            @Override
+            protected void entryRemoved(boolean wasEvicted, String key, String oldValue, String newValue) {
+                if (wasEvicted)
+                    evicted.add(key);
+            }
+        };
+    }
+
+    private static String weighing(int weight) {
+        char[] chars = new char[weight];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    @Test
+    public void weightIsTheSumOfTheWeigher() {
+        MemoryCache<String, String> cache = cache(30);
+        cache.put("a", weighing(10));
+        cache.put("b", weighing(5));
+        assertEquals(15, cache.size());
+
+        cache.put("a", weighing(3));
+        assertEquals(8, cache.size());
+        cache.remove("b");
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void heavyPutEvictsLeastRecentlyUsed() {
+        MemoryCache<String, String> cache = cache(30);
+        assertEquals(1, cache.segmentCount());
+        cache.put("a", weighing(10));
+        cache.put("b", weighing(10));
+        cache.get("a");
+        cache.put("c", weighing(15));
+
+        assertEquals(Collections.singletonList("b"), evicted);
+        assertEquals(25, cache.size());
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void entryHeavierThanMaximumIsNotKept() {
+        MemoryCache<String, String> cache = cache(30);
+        cache.put("a", weighing(10));
+        cache.put("huge", weighing(31));
+
+        assertNull(cache.get("huge"));
+        assertEquals(Arrays.asList("a", "huge"), evicted);
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void negativeWeightThrows() {
+        new MemoryCache<>(30, new Weigher<String, String>() {
+            @Override
+            public int weigh(String key, String value) {
+                return -1;
+            }
+        }).put("a", "a");
+    }
+
+    @Test
+    public void withoutWeigherEntriesAreCounted() {
+        MemoryCache<String, String> cache = new MemoryCache<>(20);
+        cache.put("a", weighing(100));
+        cache.put("b", weighing(100));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * @return count keys of the segment of key
+     */
+    private static List<String> keysLike(MemoryCache<String, String> cache, String key, int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; keys.size() < count; i++) {
+            if (cache.segmentOf("k" + i) == cache.segmentOf(key))
+                keys.add("k" + i);
+        }
+        return keys;
+    }
+
+    private static int[] budgets(MemoryCache<String, String> cache) {
+        int[] budgets = new int[cache.segmentCount()];
+        for (int i = 0; i < budgets.length; i++) {
+            budgets[i] = cache.budgetOf(i);
+        }
+        return budgets;
+    }
+
+    private static int sum(int[] budgets) {
+        int sum = 0;
+        for (int budget : budgets) {
+            sum += budget;
+        }
+        return sum;
+    }
+
+    @Test
+    public void heavyEntryBorrowsBeforeEvictingItsSegment() {
+        MemoryCache<String, String> cache = cache(64);
+        assertEquals(4, cache.segmentCount());
+        String small = keysLike(cache, "heavy", 1).get(0);
+        cache.put(small, weighing(5));
+        cache.put("heavy", weighing(20));
+
+        assertTrue(evicted.isEmpty());
+        assertNotNull(cache.get(small));
+        assertNotNull(cache.get("heavy"));
+        int[] budgets = budgets(cache);
+        assertEquals(25, budgets[cache.segmentOf("heavy")]);
+        assertEquals(64, sum(budgets));
+    }
+
+    @Test
+    public void lendersAreTakenInTurn() {
+        MemoryCache<String, String> cache = cache(64);
+        int segment = cache.segmentOf("heavy");
+        cache.put("heavy", weighing(20));
+        int[] first = budgets(cache);
+        cache.remove("heavy");
+        cache.put("heavy", weighing(20));
+        int[] second = budgets(cache);
+
+        for (int i = 0; i < first.length; i++) {
+            if (i != segment && first[i] < 16)
+                assertEquals("segment " + i + " lent twice", 16, second[i]);
+        }
+        assertEquals(64, sum(second));
+    }
+
+    @Test
+    public void borrowedBudgetIsReturnedWhenHeavyEntryLeaves() {
+        MemoryCache<String, String> cache = cache(64);
+        int[] shares = budgets(cache);
+
+        cache.put("heavy", weighing(20));
+        cache.remove("heavy");
+        assertArrayEquals(shares, budgets(cache));
+
+        // evicted by a later put of its segment
+        cache.put("heavy", weighing(20));
+        for (String key : keysLike(cache, "heavy", 4)) {
+            cache.put(key, weighing(4));
+        }
+        assertNull(cache.get("heavy"));
+        assertArrayEquals(shares, budgets(cache));
+
+        cache.put("heavy", weighing(20));
+        cache.removeAll();
+        assertArrayEquals(shares, budgets(cache));
+    }
+}
@@ -0,0 +1,117 @@
+package com.avit.safe.sqlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.avit.safe.sqlite.CriteriaCompilerTest.criteria;
+import static org.junit.Assert.*;
+
+public class QueryCacheOperatorTest {
+
+    private TestDatabase database;
+    private SQLiteDatabaseOperator<Long, TestRow> operator;
+    private QueryCacheOperator<TestRow> cached;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase();
+        operator = database.operator();
+        cached = QueryCacheOperator.cached(operator);
+        operator.saveOrUpdate(TestDatabase.rows(0, 10));
+    }
+
+    @After
+    public void tearDown() {
+        operator.close();
+        database.close();
+    }
+
+    /**
+     * Adds a row the query cache does not see.
+     */
+    private void insertBehindCache(long id, long value) {
+        database.db.execSQL("INSERT INTO test_row (id, name, value) VALUES (" + id + ", 'behind', " + value + ")");
+    }
+
+    @Test
+    public void equalCriteriaShareOneResult() {
+        Map<String, Object> criteria = criteria("value", 30L, "name", "row-3");
+        List<TestRow> first = cached.read(criteria);
+        List<TestRow> second = cached.read(new TreeMap<>(criteria));
+
+        assertEquals(1, first.size());
+        assertSame(first, second);
+        QueryCacheOperator.Stats stats = cached.stats();
+        assertEquals(1, stats.readHits);
+        assertEquals(1, stats.readMisses);
+        assertEquals(2, stats.resultWeight);
+    }
+
+    @Test
+    public void pagesAreCachedApart() {
+        assertEquals(3, cached.read(3, 0, criteria()).size());
+        assertEquals(3, cached.read(3, 3, criteria()).size());
+        assertEquals(0, cached.stats().readHits);
+
+        insertBehindCache(100, 0);
+        assertEquals(3, cached.read(3, 0, criteria()).size());
+        assertEquals(1, cached.stats().readHits);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cachedResultsAreReadOnly() {
+        cached.read(criteria("value", 10L)).clear();
+    }
+
+    @Test
+    public void writesThroughItInvalidate() {
+        assertEquals(1, cached.read(criteria("value", 50L)).size());
+        assertEquals(1, cached.count(criteria("value", 50L)));
+
+        cached.saveOrUpdate(new TestRow(50, "fifty", 50));
+        assertEquals(2, cached.read(criteria("value", 50L)).size());
+        assertEquals(2, cached.count(criteria("value", 50L)));
+
+        cached.delete(new TestRow(50, null, 0));
+        assertEquals(1, cached.read(criteria("value", 50L)).size());
+        assertEquals(1, cached.count(criteria("value", 50L)));
+    }
+
+    @Test
+    public void writesBehindItNeedInvalidate() {
+        assertEquals(1, cached.count(criteria("value", 70L)));
+        insertBehindCache(70, 70);
+        assertEquals(1, cached.count(criteria("value", 70L)));
+
+        cached.invalidate();
+        assertEquals(2, cached.count(criteria("value", 70L)));
+    }
+
+    @Test
+    public void touchedColumnsKeepCountsOfOtherColumns() {
+        cached.setTouchedColumns(new QueryCacheOperator.TouchedColumns<TestRow>() {
+            @Override
+            public Set<String> touchedColumns(TestRow row) {
+                return new HashSet<>(Collections.singletonList("name"));
+            }
+        });
+        assertEquals(1, cached.count(criteria("value", 20L)));
+        assertEquals(1, cached.count(criteria("name", "row-2")));
+        assertEquals(1, cached.read(criteria("value", 20L)).size());
+
+        cached.saveOrUpdate(new TestRow(2, "renamed", 20));
+        assertEquals(1, cached.stats().cachedCounts);
+        assertEquals(1, cached.count(criteria("value", 20L)));
+        assertEquals(0, cached.count(criteria("name", "row-2")));
+        assertEquals("renamed", cached.read(criteria("value", 20L)).get(0).name);
+        assertEquals(1, cached.stats().countHits);
+    }
+}
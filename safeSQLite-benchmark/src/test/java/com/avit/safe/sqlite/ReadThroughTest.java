@@ -0,0 +1,148 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReadThroughTest {
+
+    private RecordingOperator operator;
+    private BaseDatabaseOperator.Cache<Long, TestRow> cache;
+    private final BlockingQueue<String> loaded = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        operator = CacheTest.cached(new BaseDatabaseOperator.Cache.Builder<Long, TestRow>().readThrough(100));
+        cache = operator.getMemoryCache();
+        operator.rows.put(1L, new TestRow(1, "old", 0));
+    }
+
+    /**
+     * Loads key on another thread and returns once the load reached the database.
+     */
+    private Thread loadHeld(final long key) throws InterruptedException {
+        operator.loadStarted = new CountDownLatch(1);
+        operator.loadGate = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TestRow row = cache.loadCache(key);
+                loaded.add(row == null ? "" : row.name);
+            }
+        });
+        thread.start();
+        assertTrue(operator.loadStarted.await(5, TimeUnit.SECONDS));
+        operator.loadStarted = null;
+        return thread;
+    }
+
+    private void release(Thread thread) throws InterruptedException {
+        operator.loadGate.countDown();
+        operator.loadGate = null;
+        thread.join(5000);
+    }
+
+    @Test
+    public void loadIsCachedWhileOtherKeysAreWritten() throws Exception {
+        Thread thread = loadHeld(1);
+        operator.saveOrUpdate(new TestRow(2, "other", 0));
+        operator.delete(new TestRow(3, null, 0));
+        release(thread);
+
+        assertEquals("old", loaded.poll());
+        assertEquals("old", cache.getCache(1L).name);
+        assertEquals("old", cache.loadCache(1L).name);
+        assertEquals(1, operator.loads.get());
+    }
+
+    @Test
+    public void loadRacingWriteOfItsKeyIsNotCached() throws Exception {
+        Thread thread = loadHeld(1);
+        operator.saveOrUpdate(new TestRow(1, "new", 0));
+        release(thread);
+
+        assertEquals("old", loaded.poll());
+        assertEquals("new", cache.getCache(1L).name);
+    }
+
+    @Test
+    public void loadRacingDeleteOfItsKeyIsNotCached() throws Exception {
+        Thread thread = loadHeld(1);
+        operator.delete(new TestRow(1, null, 0));
+        release(thread);
+
+        assertEquals("old", loaded.poll());
+        assertNull(cache.getCache(1L));
+        assertNull(cache.loadCache(1L));
+        assertEquals(2, operator.loads.get());
+    }
+
+    @Test
+    public void loadRacingClearIsNotCached() throws Exception {
+        Thread thread = loadHeld(1);
+        cache.evictCache();
+        release(thread);
+
+        assertEquals("old", loaded.poll());
+        assertNull(cache.getCache(1L));
+    }
+
+    @Test
+    public void concurrentMissesShareOneLoad() throws Exception {
+        Thread first = loadHeld(1);
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loaded.add(cache.loadCache(1L).name);
+            }
+        });
+        second.start();
+        release(first);
+        second.join(5000);
+
+        assertEquals("old", loaded.poll());
+        assertEquals("old", loaded.poll());
+        assertEquals(1, operator.loads.get());
+    }
+
+    @Test
+    public void absentKeyIsRememberedForNegativeTtl() throws Exception {
+        assertNull(cache.loadCache(9L));
+        operator.rows.put(9L, new TestRow(9, "late", 0));
+        assertNull(cache.loadCache(9L));
+        assertEquals(1, operator.loads.get());
+
+        Thread.sleep(150);
+        assertEquals("late", cache.loadCache(9L).name);
+        assertEquals(2, operator.loads.get());
+    }
+
+    @Test
+    public void writeForgetsAbsentKey() {
+        assertNull(cache.loadCache(9L));
+        operator.saveOrUpdate(new TestRow(9, "saved", 0));
+        operator.delete(new TestRow(9, null, 0));
+        operator.rows.put(9L, new TestRow(9, "again", 0));
+
+        assertEquals("again", cache.loadCache(9L).name);
+        assertEquals(2, operator.loads.get());
+    }
+
+    @Test
+    public void absentKeyRacingWriteIsNotRemembered() throws Exception {
+        Thread thread = loadHeld(9);
+        operator.rows.put(9L, new TestRow(9, "new", 0));
+        operator.saveOrUpdate(new TestRow(9, "new", 0));
+        cache.evictCache(9L);
+        release(thread);
+
+        assertEquals("", loaded.poll());
+        assertEquals("new", cache.loadCache(9L).name);
+    }
+}
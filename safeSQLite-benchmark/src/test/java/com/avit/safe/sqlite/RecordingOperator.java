@@ -0,0 +1,134 @@
+package com.avit.safe.sqlite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps rows in a map and records the calls that reach it, list calls by their size.
+ */
+class RecordingOperator extends BaseDatabaseOperator<Long, TestRow> {
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    final ConcurrentHashMap<Long, TestRow> rows = new ConcurrentHashMap<>();
+    final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+    final AtomicInteger loads = new AtomicInteger();
+    final AtomicInteger stores = new AtomicInteger();
+    volatile boolean failLoads;
+    volatile boolean failStores;
+    volatile int failAtCall;
+    // list saves answer 0 like BaseDatabaseOperator, not the entities written
+    volatile boolean zeroForLists;
+    // single reads count down readStarted, then wait for readGate, loads likewise
+    volatile CountDownLatch readStarted;
+    volatile CountDownLatch readGate;
+    volatile CountDownLatch loadStarted;
+    volatile CountDownLatch loadGate;
+    private final String tag = "RecordingOperator-" + instances.incrementAndGet();
+
+    RecordingOperator() {
+    }
+
+    RecordingOperator(Cache.Builder<Long, TestRow> cacheBuilder) {
+        super(cacheBuilder);
+    }
+
+    @Override
+    public String getLogTag() {
+        return tag;
+    }
+
+    @Override
+    protected Long dataKey(TestRow row) {
+        return row.id;
+    }
+
+    @Override
+    protected TestRow load(Long key) {
+        loads.incrementAndGet();
+        if (failLoads)
+            throw new IllegalStateException("failing load of " + key);
+        TestRow row = rows.get(key);
+        pass(loadStarted, loadGate);
+        return row;
+    }
+
+    @Override
+    protected int store(List<TestRow> datas) {
+        stores.incrementAndGet();
+        if (failStores)
+            throw new IllegalStateException("failing store of " + datas.size());
+        for (TestRow row : datas) {
+            rows.put(row.id, row);
+        }
+        return datas.size();
+    }
+
+    private static void pass(CountDownLatch started, CountDownLatch gate) {
+        if (started != null)
+            started.countDown();
+        if (gate != null) {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void call(String call) {
+        calls.add(call);
+        if (calls.size() == failAtCall)
+            throw new IllegalStateException("failing " + call);
+    }
+
+    @Override
+    public int saveOrUpdate(TestRow row) {
+        call("save " + row.name);
+        rows.put(row.id, row);
+        super.saveOrUpdate(row);
+        return 1;
+    }
+
+    @Override
+    public int saveOrUpdate(List<TestRow> datas) {
+        call("save " + datas.size());
+        for (TestRow row : datas) {
+            rows.put(row.id, row);
+        }
+        super.saveOrUpdate(datas);
+        return zeroForLists ? 0 : datas.size();
+    }
+
+    @Override
+    public TestRow read(TestRow row) {
+        pass(readStarted, readGate);
+        if (getMemoryCache().isReadThrough())
+            return super.read(row);
+        return rows.get(row.id);
+    }
+
+    @Override
+    public int delete(TestRow row) {
+        call("delete 1");
+        super.delete(row);
+        return rows.remove(row.id) == null ? 0 : 1;
+    }
+
+    @Override
+    public int delete(List<TestRow> datas) {
+        call("delete " + datas.size());
+        int ret = 0;
+        for (TestRow row : datas) {
+            if (rows.remove(row.id) != null)
+                ret++;
+        }
+        super.delete(datas);
+        return ret;
+    }
+}
@@ -0,0 +1,113 @@
+package com.avit.safe.sqlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.avit.safe.sqlite.CriteriaCompilerTest.criteria;
+import static com.avit.safe.sqlite.CriteriaCompilerTest.ids;
+import static org.junit.Assert.*;
+
+public class SQLiteDatabaseOperatorTest {
+
+    private TestDatabase database;
+    private SQLiteDatabaseOperator<Long, TestRow> operator;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase();
+        operator = database.operator();
+    }
+
+    @After
+    public void tearDown() {
+        operator.close();
+        database.close();
+    }
+
+    @Test
+    public void saveReadUpdate() {
+        assertEquals(1, operator.saveOrUpdate(new TestRow(1, "one", 10)));
+        assertEquals(3, operator.saveOrUpdate(TestDatabase.rows(2, 3)));
+        assertEquals(4, operator.count());
+
+        TestRow row = operator.read(new TestRow(1, null, 0));
+        assertEquals("one", row.name);
+        assertNull(operator.read(new TestRow(99, null, 0)));
+
+        operator.saveOrUpdate(new TestRow(1, "uno", 11));
+        assertEquals(4, operator.count());
+        assertEquals("uno", operator.read(new TestRow(1, null, 0)).name);
+        assertEquals(1, operator.count(new TestRow(1, null, 0)));
+    }
+
+    @Test
+    public void readByCriteria() {
+        operator.saveOrUpdate(TestDatabase.rows(0, 10));
+
+        assertEquals(1, operator.read(criteria("name", "row-3")).size());
+        assertEquals(4, operator.read(criteria("value", Condition.ge(60))).size());
+        assertEquals(3, operator.count(criteria("id", Condition.between(2L, 4L))));
+        assertEquals(2, operator.read(criteria("id", Arrays.asList(1L, 5L, 42L))).size());
+        assertEquals(0, operator.read(criteria("id", Collections.emptyList())).size());
+        assertEquals(10, operator.read().size());
+
+        List<TestRow> page = operator.read(3, 6, criteria("value", Condition.ge(0)));
+        assertEquals(3, page.size());
+    }
+
+    @Test
+    public void deletes() {
+        operator.saveOrUpdate(TestDatabase.rows(0, 10));
+
+        assertEquals(1, operator.delete(new TestRow(0, null, 0)));
+        assertEquals(2, operator.delete(TestDatabase.rows(1, 2)));
+        assertEquals(3, operator.delete(criteria("id", Condition.lt(6L))));
+        assertEquals(4, database.rows());
+        assertEquals(4, operator.delete());
+        assertEquals(0, database.rows());
+    }
+
+    @Test
+    public void deletedRowIsNotReadFromCache() {
+        TestRow row = new TestRow(1, "one", 10);
+        operator.saveOrUpdate(row);
+        assertNotNull(operator.read(row));
+
+        operator.delete(criteria("name", "one"));
+        assertNull(operator.read(row));
+    }
+
+    @Test
+    public void longInListsAreSplit() {
+        operator.saveOrUpdate(TestDatabase.rows(0, 2500));
+        List<Object> ids = ids(0, 2500);
+        ids.addAll(ids(0, 100));
+
+        assertEquals(2500, operator.read(criteria("id", ids)).size());
+        assertEquals(2500, operator.count(criteria("id", ids, "name", Condition.notNull())));
+
+        final int[] chunks = new int[1];
+        int streamed = operator.stream(criteria("id", ids), 1000, new ChunkConsumer<TestRow>() {
+            @Override
+            public boolean onChunk(List<TestRow> chunk) {
+                chunks[0]++;
+                return true;
+            }
+        });
+        assertEquals(2500, streamed);
+        assertEquals(3, chunks[0]);
+
+        assertEquals(2500, operator.delete(criteria("id", ids)));
+        assertEquals(0, database.rows());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offsetPagingRefusesToSplit() {
+        operator.read(10, 0, criteria("id", ids(0, 2500)));
+    }
+}
@@ -0,0 +1,49 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SafeDatabaseOperatorTest {
+
+    @Test
+    public void throwingMetricsListenerDoesNotFailCall() {
+        RecordingOperator operator = new RecordingOperator();
+        SafeDatabaseOperator<TestRow> safe = SafeDatabaseOperator.safe(operator);
+        DatabaseMetrics.Listener listener = new DatabaseMetrics.Listener() {
+            @Override
+            public void onRecord(DatabaseMetrics metrics, int type, long latencyNanos, long lockWaitNanos, int retries, boolean failed) {
+                throw new IllegalStateException("listener");
+            }
+        };
+        safe.getMetrics().addListener(listener);
+        try {
+            assertEquals(1, safe.saveOrUpdate(new TestRow(1, "one", 10)));
+            assertEquals(1, safe.delete(new TestRow(1, null, 0)));
+        } finally {
+            safe.getMetrics().removeListener(listener);
+        }
+
+        assertNull(safe.takeFailure());
+        DatabaseMetrics.Snapshot snapshot = safe.getMetrics().snapshot();
+        assertEquals(1, snapshot.get(DatabaseMetrics.SAVE).calls);
+        assertEquals(0, snapshot.get(DatabaseMetrics.SAVE).failures);
+        assertEquals(1, snapshot.get(DatabaseMetrics.DELETE).calls);
+    }
+
+    @Test
+    public void failureIsRecordedOnce() {
+        RecordingOperator operator = new RecordingOperator();
+        operator.failAtCall = 1;
+        SafeDatabaseOperator<TestRow> safe = SafeDatabaseOperator.safe(operator);
+
+        assertEquals(0, safe.saveOrUpdate(new TestRow(1, "one", 10)));
+
+        SafeDatabaseOperator.Failure failure = safe.takeFailure();
+        assertNotNull(failure);
+        assertEquals(SafeDatabaseOperator.Failure.ERROR, failure.reason);
+        DatabaseMetrics.Snapshot snapshot = safe.getMetrics().snapshot();
+        assertEquals(1, snapshot.get(DatabaseMetrics.SAVE).calls);
+        assertEquals(1, snapshot.get(DatabaseMetrics.SAVE).failures);
+    }
+}
@@ -0,0 +1,120 @@
+package com.avit.safe.sqlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.avit.safe.sqlite.CriteriaCompilerTest.criteria;
+import static org.junit.Assert.*;
+
+public class StreamTest {
+
+    private TestDatabase database;
+    private SQLiteDatabaseOperator<Long, TestRow> operator;
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase();
+        operator = database.operator();
+        operator.saveOrUpdate(TestDatabase.rows(0, 100));
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    /**
+     * operator seen through type only, its calls recorded by method name.
+     */
+    @SuppressWarnings("unchecked")
+    private IDatabaseOperation<TestRow> only(Class<?> type) {
+        return (IDatabaseOperation<TestRow>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        calls.add(method.getName());
+                        try {
+                            return method.invoke(operator, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    private static ChunkConsumer<TestRow> sizes(final List<Integer> sizes, final int maxChunks) {
+        return new ChunkConsumer<TestRow>() {
+            @Override
+            public boolean onChunk(List<TestRow> chunk) {
+                sizes.add(chunk.size());
+                return sizes.size() < maxChunks;
+            }
+        };
+    }
+
+    @Test
+    public void decoratorStreamsThroughStreamOperation() {
+        CountingOperator<TestRow> counting = CountingOperator.counting(only(IStreamOperation.class), 0);
+        List<Integer> sizes = new ArrayList<>();
+
+        assertEquals(100, counting.stream(null, 30, sizes(sizes, Integer.MAX_VALUE)));
+        assertEquals(Arrays.asList(30, 30, 30, 10), sizes);
+        assertTrue(calls.contains("stream"));
+        assertFalse(calls.contains("read"));
+    }
+
+    @Test
+    public void decoratorFallsBackToRead() {
+        SafeDatabaseOperator<TestRow> safe = SafeDatabaseOperator.safe(only(IDatabaseOperation.class));
+        List<Integer> sizes = new ArrayList<>();
+
+        assertEquals(40, safe.stream(criteria("value", Condition.lt(400)), 25, sizes(sizes, Integer.MAX_VALUE)));
+        assertEquals(Arrays.asList(25, 15), sizes);
+        assertTrue(calls.contains("read"));
+    }
+
+    @Test
+    public void consumerStopsStream() {
+        QueryCacheOperator<TestRow> cached = QueryCacheOperator.cached(only(IDatabaseOperation.class));
+        List<Integer> sizes = new ArrayList<>();
+
+        assertEquals(30, cached.stream(null, 30, sizes(sizes, 1)));
+        assertEquals(Collections.singletonList(30), sizes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fallbackRejectsEmptyChunks() {
+        Chunks.stream(only(IDatabaseOperation.class), null, 0, sizes(new ArrayList<Integer>(), 1));
+    }
+
+    @Test
+    public void asyncHandsChunksOver() throws Exception {
+        AsyncDatabaseOperator<TestRow> async = AsyncDatabaseOperator.async(only(IDatabaseOperation.class));
+        final BlockingQueue<Integer> done = new LinkedBlockingQueue<>();
+        async.setListener(new AsyncDatabaseOperator.AsyncListener() {
+            @Override
+            public void onDone(int count, Object src) {
+                done.add(count);
+            }
+        });
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        assertEquals(0, async.stream(null, 40, sizes(sizes, Integer.MAX_VALUE)));
+        assertEquals(Integer.valueOf(100), done.poll(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(40, 40, 20), sizes);
+    }
+}
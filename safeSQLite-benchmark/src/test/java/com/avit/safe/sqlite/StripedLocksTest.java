@@ -0,0 +1,123 @@
+package com.avit.safe.sqlite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StripedLocksTest {
+
+    private final StripedLocks locks = new StripedLocks(16);
+
+    @Test(expected = IllegalStateException.class)
+    public void tableWhileHoldingKey() {
+        locks.lock(1L);
+        try {
+            locks.lockTable();
+        } finally {
+            locks.unlock(1L);
+        }
+    }
+
+    @Test
+    public void keysAreReentrant() {
+        int[] taken = locks.lockAll(Arrays.asList(1L, 2L, 1L));
+        locks.lock(2L);
+        locks.unlock(2L);
+        locks.unlockAll(taken);
+        assertEquals(2, taken.length);
+
+        locks.lockTable();
+        locks.unlockTable();
+    }
+
+    @Test
+    public void otherKeysDoNotWait() throws Exception {
+        locks.lock(1L);
+        try {
+            assertTrue(inThread(new Runnable() {
+                @Override
+                public void run() {
+                    locks.lock(2L);
+                    locks.unlock(2L);
+                }
+            }).await(1, TimeUnit.SECONDS));
+        } finally {
+            locks.unlock(1L);
+        }
+    }
+
+    @Test
+    public void sameKeyWaits() throws Exception {
+        locks.lock(1L);
+        CountDownLatch done;
+        try {
+            done = inThread(new Runnable() {
+                @Override
+                public void run() {
+                    locks.lock(1L);
+                    locks.unlock(1L);
+                }
+            });
+            assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        } finally {
+            locks.unlock(1L);
+        }
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void tableWaitsForKeysAndKeepsThemOut() throws Exception {
+        locks.lock(1L);
+        CountDownLatch table;
+        try {
+            table = inThread(new Runnable() {
+                @Override
+                public void run() {
+                    locks.lockTable();
+                    locks.unlockTable();
+                }
+            });
+            assertFalse(table.await(100, TimeUnit.MILLISECONDS));
+        } finally {
+            locks.unlock(1L);
+        }
+        assertTrue(table.await(1, TimeUnit.SECONDS));
+
+        locks.lockTable();
+        CountDownLatch key;
+        try {
+            key = inThread(new Runnable() {
+                @Override
+                public void run() {
+                    locks.lock(2L);
+                    locks.unlock(2L);
+                }
+            });
+            assertFalse(key.await(100, TimeUnit.MILLISECONDS));
+        } finally {
+            locks.unlockTable();
+        }
+        assertTrue(key.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @return counted down once runnable returned
+     */
+    private static CountDownLatch inThread(final Runnable runnable) {
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+}
@@ -0,0 +1,61 @@
+package com.avit.safe.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A WAL database in a temporary file with the table of {@link TestRow}.
+ */
+final class TestDatabase {
+
+    private final File file;
+    final SQLiteDatabase db;
+
+    TestDatabase() throws IOException {
+        file = File.createTempFile("safe-sqlite-test-", ".db");
+        db = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+        db.execSQL("CREATE TABLE IF NOT EXISTS test_row (id INTEGER PRIMARY KEY, name TEXT, value INTEGER)");
+    }
+
+    SQLiteDatabaseOperator<Long, TestRow> operator() {
+        return new SQLiteDatabaseOperator<>(db, TestRow_Mapping.INSTANCE);
+    }
+
+    SQLiteDatabaseOperator<Long, TestRow> operator(BaseDatabaseOperator.Cache.Builder<Long, TestRow> cacheBuilder) {
+        return new SQLiteDatabaseOperator<>(db, TestRow_Mapping.INSTANCE, cacheBuilder, 32);
+    }
+
+    /**
+     * @return the rows in the table, past any cache
+     */
+    int rows() {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM test_row", null);
+        try {
+            cursor.moveToNext();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static List<TestRow> rows(int from, int count) {
+        List<TestRow> rows = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            rows.add(new TestRow(i, "row-" + i, i * 10L));
+        }
+        return rows;
+    }
+
+    void close() {
+        db.close();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+        file.delete();
+    }
+}
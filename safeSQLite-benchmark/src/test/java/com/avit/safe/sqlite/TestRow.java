@@ -0,0 +1,25 @@
+package com.avit.safe.sqlite;
+
+@Table("test_row")
+public class TestRow {
+    @Key
+    long id;
+    @Column
+    String name;
+    @Column
+    long value;
+
+    public TestRow() {
+    }
+
+    TestRow(long id, String name, long value) {
+        this.id = id;
+        this.name = name;
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return "TestRow{" + id + ", " + name + ", " + value + '}';
+    }
+}
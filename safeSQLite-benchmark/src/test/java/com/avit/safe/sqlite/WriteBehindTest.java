@@ -0,0 +1,119 @@
+package com.avit.safe.sqlite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.avit.safe.sqlite.CriteriaCompilerTest.criteria;
+import static org.junit.Assert.*;
+
+public class WriteBehindTest {
+
+    private TestDatabase database;
+    private SQLiteDatabaseOperator<Long, TestRow> operator;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new TestDatabase();
+        // flushed only by a full batch or by hand
+        operator = database.operator(new BaseDatabaseOperator.Cache.Builder<Long, TestRow>()
+                .writeBehind(100, 60000));
+    }
+
+    @After
+    public void tearDown() {
+        operator.close();
+        database.close();
+    }
+
+    @Test
+    public void savesWaitForFlush() {
+        operator.saveOrUpdate(new TestRow(1, "one", 10));
+
+        assertEquals(0, database.rows());
+        assertEquals("one", operator.read(new TestRow(1, null, 0)).name);
+        assertEquals(1, operator.getMemoryCache().unflushedWrites());
+
+        operator.flush();
+        assertEquals(1, database.rows());
+        assertEquals(0, operator.getMemoryCache().unflushedWrites());
+    }
+
+    @Test
+    public void fullBatchFlushesByItself() throws Exception {
+        operator.saveOrUpdate(TestDatabase.rows(0, 100));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (database.rows() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, database.rows());
+    }
+
+    @Test
+    public void laterSaveOfKeyWins() {
+        operator.saveOrUpdate(new TestRow(1, "first", 10));
+        operator.saveOrUpdate(new TestRow(1, "second", 20));
+        operator.flush();
+
+        assertEquals(1, operator.getMemoryCache().collapsedWrites());
+        assertEquals(1, database.rows());
+        assertEquals(1, operator.count(criteria("name", "second")));
+    }
+
+    @Test
+    public void deleteDropsPendingWrite() {
+        TestRow row = new TestRow(1, "one", 10);
+        operator.saveOrUpdate(row);
+        operator.delete(row);
+        operator.flush();
+
+        assertEquals(0, database.rows());
+        assertNull(operator.read(row));
+    }
+
+    @Test
+    public void deleteByCriteriaKeepsOtherPendingWrites() {
+        operator.saveOrUpdate(new TestRow(1, "keep", 10));
+        operator.saveOrUpdate(new TestRow(2, "drop", 20));
+
+        assertEquals(1, operator.delete(criteria("name", "drop")));
+        assertEquals(0, operator.getMemoryCache().unflushedWrites());
+        assertEquals(1, database.rows());
+        assertEquals("keep", operator.read(new TestRow(1, null, 0)).name);
+    }
+
+    @Test
+    public void closeFlushes() {
+        operator.saveOrUpdate(TestDatabase.rows(0, 10));
+        operator.close();
+
+        assertEquals(10, database.rows());
+    }
+
+    @Test
+    public void failedFlushBacksOff() throws Exception {
+        RecordingOperator failing = new RecordingOperator(new BaseDatabaseOperator.Cache.Builder<Long, TestRow>()
+                .writeBehind(1, 0));
+        BaseDatabaseOperator.Cache<Long, TestRow> cache = failing.getMemoryCache();
+        failing.failStores = true;
+        failing.saveOrUpdate(new TestRow(1, "one", 10));
+        Thread.sleep(300);
+        assertEquals(1, failing.stores.get());
+
+        // a full batch waits for the retry as well
+        failing.saveOrUpdate(new TestRow(2, "two", 20));
+        Thread.sleep(100);
+        assertEquals(1, failing.stores.get());
+        assertEquals(2, cache.unflushedWrites());
+
+        failing.failStores = false;
+        long deadline = System.currentTimeMillis() + WriteBehind.MIN_RETRY_MILLIS + 5000;
+        while (cache.unflushedWrites() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, cache.unflushedWrites());
+        assertEquals(2, cache.flushedWrites());
+        assertEquals(1, cache.failedFlushes());
+    }
+}
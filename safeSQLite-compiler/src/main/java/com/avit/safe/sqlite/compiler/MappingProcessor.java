@@ -0,0 +1,357 @@
+package com.avit.safe.sqlite.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a TableMapping per {@code @Table} entity that binds and reads its columns by index
+ * in straight-line code, no reflection at runtime.
+ * <p>
+ * The annotations are matched by name, this module does not depend on the Android library.
+ */
+public final class MappingProcessor extends AbstractProcessor {
+
+    private static final String TABLE = "com.avit.safe.sqlite.Table";
+    private static final String COLUMN = "com.avit.safe.sqlite.Column";
+    private static final String KEY = "com.avit.safe.sqlite.Key";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(TABLE);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@Table only applies to classes");
+                    continue;
+                }
+                try {
+                    generate((TypeElement) element);
+                } catch (IOException e) {
+                    error(element, "can not write mapping: " + e);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void generate(TypeElement entity) throws IOException {
+        if (entity.getModifiers().contains(Modifier.PRIVATE) || entity.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(entity, "@Table entities must be neither private nor abstract");
+            return;
+        }
+        for (Element outer = entity; outer.getKind() != ElementKind.PACKAGE; outer = outer.getEnclosingElement()) {
+            if (outer != entity && outer.getModifiers().contains(Modifier.PRIVATE)) {
+                error(entity, "@Table entities must not be nested in a private class");
+                return;
+            }
+        }
+        if (entity.getEnclosingElement().getKind() != ElementKind.PACKAGE && !entity.getModifiers().contains(Modifier.STATIC)) {
+            error(entity, "nested @Table entities must be static");
+            return;
+        }
+        if (!hasDefaultConstructor(entity)) {
+            error(entity, "@Table entities need a constructor without arguments that is not private");
+            return;
+        }
+
+        List<Field> fields = new ArrayList<>();
+        Field key = null;
+        for (VariableElement variable : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+            boolean isKey = annotation(variable, KEY) != null;
+            AnnotationMirror column = annotation(variable, COLUMN);
+            if (!isKey && column == null)
+                continue;
+
+            Field field = field(entity, variable, column, fields.size());
+            if (field == null)
+                return;
+            fields.add(field);
+
+            if (isKey) {
+                if (key != null) {
+                    error(variable, "more than one @Key in " + entity.getSimpleName());
+                    return;
+                }
+                key = field;
+            }
+        }
+        if (key == null) {
+            error(entity, "no @Key in " + entity.getSimpleName());
+            return;
+        }
+
+        String packageName = ((PackageElement) packageOf(entity)).getQualifiedName().toString();
+        // Outer.Inner for a nested entity, which gets Outer_Inner_Mapping
+        String entityName = entity.getQualifiedName().toString().substring(packageName.isEmpty() ? 0 : packageName.length() + 1);
+        String mappingName = entityName.replace('.', '_') + "_Mapping";
+        String table = stringValue(annotation(entity, TABLE));
+        if (table.isEmpty())
+            table = entity.getSimpleName().toString();
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty())
+            out.append("package ").append(packageName).append(";\n\n");
+        out.append("import android.database.Cursor;\n");
+        out.append("import android.database.sqlite.SQLiteProgram;\n\n");
+        out.append("import com.avit.safe.sqlite.TableMapping;\n\n");
+        out.append("/**\n * Generated by MappingProcessor from ").append(entityName).append(", do not edit.\n */\n");
+        out.append("public final class ").append(mappingName).append(" implements TableMapping<")
+                .append(key.type.boxed).append(", ").append(entityName).append("> {\n\n");
+        out.append("    public static final ").append(mappingName).append(" INSTANCE = new ").append(mappingName).append("();\n\n");
+
+        out.append("    private static final String[] COLUMNS = {");
+        for (int i = 0; i < fields.size(); i++) {
+            out.append(i == 0 ? "" : ", ").append('"').append(fields.get(i).column).append('"');
+        }
+        out.append("};\n\n");
+
+        out.append("    @Override\n    public String table() {\n        return \"").append(table).append("\";\n    }\n\n");
+        out.append("    @Override\n    public String keyColumn() {\n        return \"").append(key.column).append("\";\n    }\n\n");
+        out.append("    @Override\n    public String[] columns() {\n        return COLUMNS.clone();\n    }\n\n");
+
+        out.append("    @Override\n    public ").append(key.type.boxed).append(" key(").append(entityName).append(" data) {\n");
+        out.append("        return data.").append(key.getter).append(";\n    }\n\n");
+
+        out.append("    @Override\n    public void bind(SQLiteProgram program, ").append(entityName).append(" data) {\n");
+        for (Field field : fields) {
+            field.type.bind(out, field);
+        }
+        out.append("    }\n\n");
+
+        out.append("    @Override\n    public ").append(entityName).append(" read(Cursor cursor) {\n");
+        out.append("        ").append(entityName).append(" data = new ").append(entityName).append("();\n");
+        for (Field field : fields) {
+            out.append("        data.").append(field.setter(field.type.read(field.index))).append(";\n");
+        }
+        out.append("        return data;\n    }\n}\n");
+
+        String name = packageName.isEmpty() ? mappingName : packageName + "." + mappingName;
+        Writer writer = processingEnv.getFiler().createSourceFile(name, entity).openWriter();
+        try {
+            writer.write(out.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static Element packageOf(Element element) {
+        while (element.getKind() != ElementKind.PACKAGE) {
+            element = element.getEnclosingElement();
+        }
+        return element;
+    }
+
+    private static boolean hasDefaultConstructor(TypeElement entity) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+                return true;
+        }
+        return false;
+    }
+
+    private static AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name))
+                return mirror;
+        }
+        return null;
+    }
+
+    private static String stringValue(AnnotationMirror mirror) {
+        if (mirror == null)
+            return "";
+        for (java.util.Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value"))
+                return (String) entry.getValue().getValue();
+        }
+        return "";
+    }
+
+    private Field field(TypeElement entity, VariableElement variable, AnnotationMirror column, int index) {
+        Set<Modifier> modifiers = variable.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL)) {
+            error(variable, "mapped fields must be neither static nor final");
+            return null;
+        }
+
+        ColumnType type = ColumnType.of(variable.asType());
+        if (type == null) {
+            error(variable, "unsupported column type " + variable.asType());
+            return null;
+        }
+
+        String name = variable.getSimpleName().toString();
+        String columnName = stringValue(column);
+        if (columnName.isEmpty())
+            columnName = name;
+
+        if (!modifiers.contains(Modifier.PRIVATE))
+            return new Field(columnName, type, index, name, name);
+
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        String getter = (type.kind == TypeKind.BOOLEAN ? "is" : "get") + suffix;
+        String setter = "set" + suffix;
+        if (!hasMethod(entity, getter, 0) || !hasMethod(entity, setter, 1)) {
+            error(variable, "private field " + name + " needs " + getter + "() and " + setter + "(..)");
+            return null;
+        }
+        return new Field(columnName, type, index, getter + "()", setter);
+    }
+
+    private static boolean hasMethod(TypeElement entity, String name, int parameters) {
+        for (ExecutableElement method : ElementFilter.methodsIn(entity.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameters
+                    && !method.getModifiers().contains(Modifier.PRIVATE))
+                return true;
+        }
+        return false;
+    }
+
+    private static final class Field {
+        final String column;
+        final ColumnType type;
+        /**
+         * cursor index, the bind index is one more
+         */
+        final int index;
+        /**
+         * expression reading the value off "data."
+         */
+        final String getter;
+        private final String fieldOrSetter;
+        private final boolean direct;
+
+        Field(String column, ColumnType type, int index, String getter, String fieldOrSetter) {
+            this.column = column;
+            this.type = type;
+            this.index = index;
+            this.getter = getter;
+            this.fieldOrSetter = fieldOrSetter;
+            this.direct = getter.equals(fieldOrSetter);
+        }
+
+        String setter(String value) {
+            return direct ? fieldOrSetter + " = " + value : fieldOrSetter + "(" + value + ")";
+        }
+    }
+
+    /**
+     * How a Java type is bound to a statement and read from a cursor.
+     */
+    private static final class ColumnType {
+        final TypeKind kind;
+        final String boxed;
+        final boolean nullable;
+        private final String bind;
+        private final String read;
+
+        /**
+         * @param bind method and value expression, %s standing for the value
+         * @param read cursor expression, %d standing for the index
+         */
+        private ColumnType(TypeKind kind, String boxed, boolean nullable, String bind, String read) {
+            this.kind = kind;
+            this.boxed = boxed;
+            this.nullable = nullable;
+            this.bind = bind;
+            this.read = read;
+        }
+
+        static ColumnType of(TypeMirror type) {
+            switch (type.getKind()) {
+                case LONG:
+                    return new ColumnType(TypeKind.LONG, "Long", false, "bindLong(%d, %s)", "cursor.getLong(%d)");
+                case INT:
+                    return new ColumnType(TypeKind.INT, "Integer", false, "bindLong(%d, %s)", "cursor.getInt(%d)");
+                case SHORT:
+                    return new ColumnType(TypeKind.SHORT, "Short", false, "bindLong(%d, %s)", "cursor.getShort(%d)");
+                case BYTE:
+                    return new ColumnType(TypeKind.BYTE, "Byte", false, "bindLong(%d, %s)", "(byte) cursor.getInt(%d)");
+                case BOOLEAN:
+                    return new ColumnType(TypeKind.BOOLEAN, "Boolean", false, "bindLong(%d, %s ? 1 : 0)", "cursor.getInt(%d) != 0");
+                case DOUBLE:
+                    return new ColumnType(TypeKind.DOUBLE, "Double", false, "bindDouble(%d, %s)", "cursor.getDouble(%d)");
+                case FLOAT:
+                    return new ColumnType(TypeKind.FLOAT, "Float", false, "bindDouble(%d, %s)", "cursor.getFloat(%d)");
+                case ARRAY:
+                    if (type.toString().equals("byte[]"))
+                        return new ColumnType(TypeKind.ARRAY, "byte[]", true, "bindBlob(%d, %s)", "cursor.getBlob(%d)");
+                    return null;
+                case DECLARED:
+                    switch (type.toString()) {
+                        case "java.lang.String":
+                            return new ColumnType(TypeKind.DECLARED, "String", true, "bindString(%d, %s)", "cursor.getString(%d)");
+                        case "java.lang.Long":
+                            return new ColumnType(TypeKind.DECLARED, "Long", true, "bindLong(%d, %s)", "cursor.getLong(%d)");
+                        case "java.lang.Integer":
+                            return new ColumnType(TypeKind.DECLARED, "Integer", true, "bindLong(%d, %s)", "cursor.getInt(%d)");
+                        case "java.lang.Boolean":
+                            return new ColumnType(TypeKind.DECLARED, "Boolean", true, "bindLong(%d, %s ? 1 : 0)", "cursor.getInt(%d) != 0");
+                        case "java.lang.Double":
+                            return new ColumnType(TypeKind.DECLARED, "Double", true, "bindDouble(%d, %s)", "cursor.getDouble(%d)");
+                        case "java.lang.Float":
+                            return new ColumnType(TypeKind.DECLARED, "Float", true, "bindDouble(%d, %s)", "cursor.getFloat(%d)");
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+
+        void bind(StringBuilder out, Field field) {
+            int index = field.index + 1;
+            if (!nullable) {
+                out.append("        program.").append(String.format(bind, index, "data." + field.getter)).append(";\n");
+                return;
+            }
+            String local = "v" + index;
+            out.append("        ").append(boxed).append(' ').append(local).append(" = data.").append(field.getter).append(";\n");
+            out.append("        if (").append(local).append(" == null)\n");
+            out.append("            program.bindNull(").append(index).append(");\n");
+            out.append("        else\n");
+            out.append("            program.").append(String.format(bind, index, local)).append(";\n");
+        }
+
+        String read(int index) {
+            String value = String.format(read, index);
+            if (!nullable || kind == TypeKind.ARRAY || boxed.equals("String"))
+                return value;
+            return "cursor.isNull(" + index + ") ? null : " + value;
+        }
+    }
+}
@@ -5,30 +5,37 @@ import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DATA> {
+public final class AsyncDatabaseOperator<DATA> implements IStreamOperation<DATA>, IPageOperation<DATA> {
 
     public static <DATA> AsyncDatabaseOperator<DATA> async(IDatabaseOperation<DATA> operation) {
         return new AsyncDatabaseOperator<>(operation);
     }
 
-    private final IDatabaseOperation<DATA> operation;
+    private final SafeDatabaseOperator<DATA> operation;
     private final String TAG;
     private final AsyncExecutor asyncExecutor;
 
+    @SuppressWarnings("unchecked")
     private AsyncDatabaseOperator(IDatabaseOperation<DATA> operation) {
 
         this.TAG = operation.getLogTag();
 
         if (operation instanceof SafeDatabaseOperator) {
-            this.operation = operation;
+            this.operation = (SafeDatabaseOperator<DATA>) operation;
         } else {
             this.operation = SafeDatabaseOperator.safe(operation);
         }
@@ -44,13 +51,7 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
     @Override
     public int saveOrUpdate(final DATA data) {
 
-        executeOperator(new AsyncTask(data) {
-            @Override
-            public Object call() {
-                sendAsyncMessage(AsyncExecutor.MSG_SAVE, operation.saveOrUpdate(data), this);
-                return this;
-            }
-        });
+        executeOperator(new WriteTask(AsyncExecutor.MSG_SAVE, data, Collections.singletonList(data)));
 
         return 1;
     }
@@ -58,18 +59,14 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
     @Override
     public int saveOrUpdate(final List<DATA> datas) {
 
-        executeOperator(new AsyncTask(datas) {
-            @Override
-            public Object call() {
-                sendAsyncMessage(AsyncExecutor.MSG_SAVE, operation.saveOrUpdate(datas), this);
-                return this;
-            }
-        });
+        executeOperator(new WriteTask(AsyncExecutor.MSG_SAVE, datas, datas));
 
         return datas.size();
     }
 
     private void executeOperator(AsyncTask task) {
+        task.priority = takePriority();
+
         AsyncListener listener = onceListener;
         if (listener == null)
             listener = this.listener;
@@ -86,11 +83,13 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
         executeReadOperator(new AsyncTask(data) {
             @Override
             public Object call() {
-                rets = operation.read(data);
-                sendAsyncMessage(AsyncExecutor.MSG_READ, rets == null ? 0 : 1, this);
+                DATA ret = operation.read(data);
+                // onRead gets a list, of the one entity found or none
+                rets = ret == null ? Collections.<DATA>emptyList() : Collections.singletonList(ret);
+                sendAsyncMessage(AsyncExecutor.MSG_READ, ret == null ? 0 : 1, this);
                 return this;
             }
-        });
+        }, null);
 
         return data;
     }
@@ -108,7 +107,7 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
                 sendAsyncMessage(AsyncExecutor.MSG_READ, ls.size(), this);
                 return this;
             }
-        });
+        }, deduplicateReads ? ReadKey.of(ReadKey.READ, objects) : null);
 
         return Collections.emptyList();
     }
@@ -124,7 +123,7 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
                 sendAsyncMessage(AsyncExecutor.MSG_READ, ls.size(), this);
                 return this;
             }
-        });
+        }, deduplicateReads ? ReadKey.of(ReadKey.READ_PAGE, object, pageSize, offset) : null);
 
         return Collections.emptyList();
     }
@@ -140,12 +139,61 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
                 sendAsyncMessage(AsyncExecutor.MSG_READ, ls.size(), this);
                 return this;
             }
-        });
+        }, deduplicateReads ? ReadKey.of(ReadKey.READ_ALL, null) : null);
 
         return Collections.emptyList();
     }
 
-    private void executeReadOperator(AsyncTask task) {
+    /**
+     * The read listener gets the {@link Page} as rets.
+     *
+     * @return an empty page
+     */
+    @Override
+    public Page<DATA> readPage(final int pageSize, final String token, final Map<String, Object> objects) {
+
+        executeReadOperator(new AsyncTask(objects) {
+            @Override
+            public Object call() {
+                Page<DATA> page = operation.readPage(pageSize, token, objects);
+                rets = page;
+                sendAsyncMessage(AsyncExecutor.MSG_READ, page == null ? 0 : page.size(), this);
+                return this;
+            }
+        }, deduplicateReads ? ReadKey.of(ReadKey.READ_KEYSET, objects, pageSize, token) : null);
+
+        return Page.empty();
+    }
+
+    /**
+     * consumer gets the chunks on the main thread, one at a time, the reading thread waits for each
+     * to be consumed, so no more than one chunk is held. The listener then gets the row count.
+     *
+     * @return 0, the count goes to the listener
+     */
+    @Override
+    public int stream(final Map<String, Object> objects, final int chunkSize, final ChunkConsumer<DATA> consumer) {
+
+        executeReadOperator(new AsyncTask(objects) {
+            @Override
+            public Object call() {
+                int count = operation.stream(objects, chunkSize, new ChunkConsumer<DATA>() {
+                    @Override
+                    public boolean onChunk(List<DATA> chunk) {
+                        return asyncExecutor.handOver(consumer, chunk);
+                    }
+                });
+                sendAsyncMessage(AsyncExecutor.MSG_STREAM, count, this);
+                return this;
+            }
+        }, null);
+
+        return 0;
+    }
+
+    private void executeReadOperator(AsyncTask task, ReadKey key) {
+        task.priority = takePriority();
+
         AsyncListener listener = onceListener;
         if (listener == null)
             listener = this.listener;
@@ -160,19 +208,145 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
         onceReadListener = null;
         task.readListener = readListener;
 
-        asyncExecutor.execute(task);
+        if (key != null && deduplicateReads && asyncExecutor.join(key, task))
+            return;
+
+        asyncExecutor.executeRead(task);
+    }
+
+    private void executeCountOperator(AsyncTask task, ReadKey key) {
+        task.priority = takePriority();
+
+        AsyncListener listener = onceListener;
+        if (listener == null)
+            listener = this.listener;
+
+        onceListener = null;
+
+        task.listener = listener;
+
+        if (key != null && deduplicateReads && asyncExecutor.join(key, task))
+            return;
+
+        asyncExecutor.executeRead(task);
+    }
+
+    // read by the callers before building a ReadKey, which copies and hashes the criteria
+    private volatile boolean deduplicateReads;
+
+    /**
+     * A read() or count() identical to one still queued or running joins it instead of querying
+     * again, every caller's listeners get the shared result. Writes submitted or finished since
+     * stop further calls from joining, and a call never joins while its own thread has a write pending.
+     * <p>
+     * Joined callers receive the same result list, treat it as read only.
+     */
+    public void enableReadDeduplication() {
+        deduplicateReads = true;
+    }
+
+    public void disableReadDeduplication() {
+        deduplicateReads = false;
+    }
+
+    static final class ReadKey {
+        static final int READ = 1;
+        static final int READ_PAGE = 2;
+        static final int READ_ALL = 3;
+        static final int COUNT = 4;
+        static final int COUNT_ALL = 5;
+        static final int READ_KEYSET = 6;
+
+        private final int kind;
+        private final Map<String, Object> criteria;
+        private final int pageSize;
+        private final int offset;
+        private final String token;
+
+        private ReadKey(int kind, Map<String, Object> criteria, int pageSize, int offset, String token) {
+            this.kind = kind;
+            // copied, the caller may reuse its map while the read is in flight
+            this.criteria = criteria == null ? null : new HashMap<>(criteria);
+            this.pageSize = pageSize;
+            this.offset = offset;
+            this.token = token;
+        }
+
+        static ReadKey of(int kind, Map<String, Object> criteria) {
+            return new ReadKey(kind, criteria, 0, 0, null);
+        }
+
+        static ReadKey of(int kind, Map<String, Object> criteria, int pageSize, int offset) {
+            return new ReadKey(kind, criteria, pageSize, offset, null);
+        }
+
+        static ReadKey of(int kind, Map<String, Object> criteria, int pageSize, String token) {
+            return new ReadKey(kind, criteria, pageSize, 0, token);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof ReadKey))
+                return false;
+            ReadKey key = (ReadKey) o;
+            return kind == key.kind
+                    && pageSize == key.pageSize
+                    && offset == key.offset
+                    && (token == null ? key.token == null : token.equals(key.token))
+                    && (criteria == null ? key.criteria == null : criteria.equals(key.criteria));
+        }
+
+        @Override
+        public int hashCode() {
+            int h = kind;
+            h = 31 * h + pageSize;
+            h = 31 * h + offset;
+            h = 31 * h + (token == null ? 0 : token.hashCode());
+            h = 31 * h + (criteria == null ? 0 : criteria.hashCode());
+            return h;
+        }
+    }
+
+    /**
+     * Callers sharing one in flight read, owned by the leading task.
+     */
+    static final class Flight {
+        final ReadKey key;
+        private List<AsyncTask> followers;
+        private boolean closed;
+
+        Flight(ReadKey key) {
+            this.key = key;
+        }
+
+        synchronized boolean attach(AsyncTask follower) {
+            if (closed)
+                return false;
+            if (followers == null)
+                followers = new ArrayList<>(2);
+            followers.add(follower);
+            return true;
+        }
+
+        /**
+         * @return the followers, or null if already closed
+         */
+        synchronized List<AsyncTask> close() {
+            if (closed)
+                return null;
+            closed = true;
+            List<AsyncTask> ls = followers;
+            followers = null;
+            return ls == null ? Collections.<AsyncTask>emptyList() : ls;
+        }
     }
 
     @Override
     public int delete(final DATA data) {
 
-        executeOperator(new AsyncTask(data) {
-            @Override
-            public Object call() throws Exception {
-                sendAsyncMessage(AsyncExecutor.MSG_DELETE, operation.delete(data), this);
-                return this;
-            }
-        });
+        executeOperator(new WriteTask(AsyncExecutor.MSG_DELETE, data, Collections.singletonList(data)));
 
         return 0;
     }
@@ -192,13 +366,7 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
     @Override
     public int delete(final List<DATA> datas) {
 
-        executeOperator(new AsyncTask(datas) {
-            @Override
-            public Object call() throws Exception {
-                sendAsyncMessage(AsyncExecutor.MSG_DELETE, operation.delete(datas), this);
-                return this;
-            }
-        });
+        executeOperator(new WriteTask(AsyncExecutor.MSG_DELETE, datas, datas));
 
         return 0;
     }
@@ -218,13 +386,13 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
     @Override
     public int count() {
 
-        executeOperator(new AsyncTask() {
+        executeCountOperator(new AsyncTask() {
             @Override
             public Object call() throws Exception {
                 sendAsyncMessage(AsyncExecutor.MSG_COUNT, operation.count(), this);
                 return this;
             }
-        });
+        }, deduplicateReads ? ReadKey.of(ReadKey.COUNT_ALL, null) : null);
 
         return 0;
     }
@@ -232,13 +400,13 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
     @Override
     public int count(final DATA data) {
 
-        executeOperator(new AsyncTask() {
+        executeCountOperator(new AsyncTask() {
             @Override
             public Object call() throws Exception {
                 sendAsyncMessage(AsyncExecutor.MSG_COUNT, operation.count(data), this);
                 return this;
             }
-        });
+        }, null);
 
         return 0;
     }
@@ -246,17 +414,321 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
     @Override
     public int count(final Map<String, Object> objects) {
 
-        executeOperator(new AsyncTask() {
+        executeCountOperator(new AsyncTask() {
             @Override
             public Object call() throws Exception {
                 sendAsyncMessage(AsyncExecutor.MSG_COUNT, operation.count(objects), this);
                 return this;
             }
-        });
+        }, deduplicateReads ? ReadKey.of(ReadKey.COUNT, objects) : null);
 
         return 0;
     }
 
+    /**
+     * Run reads and counts on up to maxReaders threads of their own, saves and deletes keep their single
+     * ordered thread. A read is still queued behind the writes its calling thread submitted before it,
+     * so callers always read their own writes.
+     * <p>
+     * Only useful when the underlying database allows concurrent readers, e.g. in WAL mode.
+     */
+    public void enableConcurrentReads(int maxReaders) {
+        asyncExecutor.enableConcurrentReads(maxReaders);
+    }
+
+    public void disableConcurrentReads() {
+        asyncExecutor.disableConcurrentReads();
+    }
+
+    private volatile int maxWriteBatch = 1;
+    private volatile long maxWriteLingerMillis;
+
+    /**
+     * Merge consecutive queued saveOrUpdate calls into one list call, every caller still gets its
+     * own {@link AsyncListener#onDone}: the size of its call when the merged one wrote every
+     * entity, 0 otherwise, a total short of that can not be split among the callers. Deletes are
+     * not merged, how many rows each deletes depends on which of them still exist.
+     *
+     * @param maxBatchSize     most entities written by one merged call
+     * @param maxLingerMillis  how long the executor may wait for more writes once the queue runs dry
+     */
+    public void enableWriteCoalescing(int maxBatchSize, long maxLingerMillis) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize < 1: " + maxBatchSize);
+        this.maxWriteLingerMillis = Math.max(0, maxLingerMillis);
+        this.maxWriteBatch = maxBatchSize;
+    }
+
+    public void disableWriteCoalescing() {
+        this.maxWriteBatch = 1;
+        this.maxWriteLingerMillis = 0;
+    }
+
+    private final class WriteTask extends AsyncTask {
+        final int what;
+        final List<DATA> datas;
+
+        WriteTask(int what, Object src, List<DATA> datas) {
+            super(src);
+            this.what = what;
+            this.datas = datas;
+        }
+
+        @Override
+        public Object call() {
+
+            int maxBatch = maxWriteBatch;
+            if (maxBatch <= 1 || what != AsyncExecutor.MSG_SAVE || datas.size() >= maxBatch) {
+                write(datas);
+                return this;
+            }
+
+            List<WriteTask> batch = new ArrayList<>();
+            batch.add(this);
+            int size = datas.size();
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWriteLingerMillis);
+            Runnable next = null;
+
+            while (size < maxBatch) {
+                Runnable queued = asyncExecutor.peekQueued();
+                if (queued == null) {
+                    long linger = deadline - System.nanoTime();
+                    if (linger <= 0)
+                        break;
+                    queued = asyncExecutor.pollQueued(linger);
+                    if (queued == null)
+                        break;
+                    if (!accepts(queued, size, maxBatch)) {
+                        next = queued;
+                        break;
+                    }
+                } else if (!accepts(queued, size, maxBatch) || !asyncExecutor.takeQueued(queued)) {
+                    break;
+                }
+
+                WriteTask task = (WriteTask) queued;
+                batch.add(task);
+                size += task.datas.size();
+            }
+
+            if (batch.size() == 1) {
+                write(datas);
+            } else {
+                List<DATA> merged = new ArrayList<>(size);
+                for (WriteTask task : batch) {
+                    merged.addAll(task.datas);
+                }
+
+                operation.takeFailure();
+                int ret = operation.saveOrUpdate(merged);
+                boolean failed = operation.takeFailure() != null;
+                Log.d(TAG, "coalesce: " + batch.size() + " calls, " + size + " entities, ret = " + ret + ", failed = " + failed);
+
+                // the merged call only reports a total, which is the callers' own sizes only if
+                // it covers every entity
+                boolean all = !failed && ret == size;
+                for (WriteTask task : batch) {
+                    task.done = true;
+                    sendAsyncMessage(what, all ? task.datas.size() : 0, task);
+                }
+            }
+
+            if (next != null) {
+                next.run();
+                asyncExecutor.finished(next);
+            }
+
+            return this;
+        }
+
+        private boolean accepts(Runnable queued, int size, int maxBatch) {
+            if (!(queued instanceof AsyncDatabaseOperator.WriteTask))
+                return false;
+            WriteTask task = (WriteTask) queued;
+            return task.what == what && size + task.datas.size() <= maxBatch;
+        }
+
+        private void write(List<DATA> datas) {
+            int ret;
+            int chunkSize = writeChunkSize;
+            if (datas == src && chunkSize > 0 && datas.size() > chunkSize) {
+                ret = writeChunked(datas, chunkSize);
+            } else if (datas == src) {
+                ret = what == AsyncExecutor.MSG_SAVE ? operation.saveOrUpdate(datas) : operation.delete(datas);
+            } else {
+                ret = what == AsyncExecutor.MSG_SAVE ? operation.saveOrUpdate(datas.get(0)) : operation.delete(datas.get(0));
+            }
+            sendAsyncMessage(what, ret, this);
+        }
+
+        private int writeChunked(List<DATA> datas, int maxChunk) {
+            long budget = TimeUnit.MILLISECONDS.toNanos(maxChunkMillis);
+            int total = datas.size();
+            int chunk = maxChunk;
+            int chunks = 0;
+            int written = 0;
+            int offset = 0;
+            long b = System.nanoTime();
+
+            while (offset < total) {
+                int end = Math.min(total, offset + chunk);
+                List<DATA> part = datas.subList(offset, end);
+
+                long a = System.nanoTime();
+                operation.takeFailure();
+                int ret = what == AsyncExecutor.MSG_SAVE ? operation.saveOrUpdate(part) : operation.delete(part);
+                long took = System.nanoTime() - a;
+                chunks++;
+
+                // the safe operator already retried, a chunk it gave up on failed for good, a
+                // result of 0 alone is no failure, BaseDatabaseOperator saves return it
+                SafeDatabaseOperator.Failure failure = operation.takeFailure();
+                if (failure != null) {
+                    Log.w(TAG, "writeChunked: chunk at " + offset + " failed, " + (total - offset) + " entities not written: " + failure);
+                    break;
+                }
+                written += ret;
+                offset = end;
+
+                if (budget > 0) {
+                    if (took > budget && chunk > 1)
+                        chunk = Math.max(1, chunk / 2);
+                    else if (took < budget / 2 && chunk < maxChunk)
+                        chunk = Math.min(maxChunk, chunk * 2);
+                }
+
+                asyncExecutor.sendProgress(offset, total, this);
+
+                if (offset < total && asyncExecutor.runQueuedReads(this, budget) == 0)
+                    Thread.yield();
+            }
+
+            Log.d(TAG, "writeChunked: " + total + " entities in " + chunks + " chunks, ret = " + written
+                    + ", " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - b) + "ms");
+            return written;
+        }
+    }
+
+    private volatile int writeChunkSize;
+    private volatile long maxChunkMillis;
+
+    /**
+     * Split saveOrUpdate(List) and delete(List) calls of more than chunkSize entities into calls of
+     * up to chunkSize, each its own transaction, so one large import does not hold the database for
+     * its whole duration. Chunks are made smaller while they take longer than maxChunkMillis.
+     * <p>
+     * Between chunks the executor runs the queued reads and counts that do not wait for this write,
+     * and an {@link AsyncProgressListener} is told how far the call got. A chunk that failed, one
+     * the underlying operator threw on or gave up retrying, ends the call, the entities after it are
+     * not written and {@link AsyncListener#onDone} gets the sum of what the written chunks returned.
+     */
+    public void enableChunkedWrites(int chunkSize, long maxChunkMillis) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize < 1: " + chunkSize);
+        this.maxChunkMillis = Math.max(0, maxChunkMillis);
+        this.writeChunkSize = chunkSize;
+    }
+
+    public void disableChunkedWrites() {
+        this.writeChunkSize = 0;
+        this.maxChunkMillis = 0;
+    }
+
+    /**
+     * Block the submitting thread until the queue has room. The main thread is never blocked, its
+     * calls are rejected instead as with {@link #OVERFLOW_REJECT}: it may be the one the queue
+     * waits for, e.g. a {@link #stream} handing it a chunk.
+     */
+    public static final int OVERFLOW_BLOCK = 0;
+    /**
+     * Do not queue the call, {@link RejectListener#onRejected} is told on the main thread.
+     */
+    public static final int OVERFLOW_REJECT = 1;
+    /**
+     * Drop the oldest queued read or count to make room, writes are never dropped and block
+     * when no read is queued, or are rejected on the main thread, see {@link #OVERFLOW_BLOCK}.
+     */
+    public static final int OVERFLOW_DROP_OLDEST_READ = 2;
+
+    /**
+     * Bound the calls waiting for an executor thread, reads and writes together. Unbounded by default.
+     *
+     * @param overflow one of {@link #OVERFLOW_BLOCK}, {@link #OVERFLOW_REJECT}, {@link #OVERFLOW_DROP_OLDEST_READ}
+     */
+    public void setQueueCapacity(int capacity, int overflow) {
+        asyncExecutor.setQueueCapacity(capacity, overflow);
+    }
+
+    public void setRejectListener(RejectListener rejectListener) {
+        asyncExecutor.rejectListener = rejectListener;
+    }
+
+    /**
+     * @return calls submitted but not started yet
+     */
+    public int getQueueDepth() {
+        return asyncExecutor.pending.get();
+    }
+
+    /**
+     * @return moving average of the time calls spend queued before they start
+     */
+    public long getQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(asyncExecutor.queueWaitNanos);
+    }
+
+    public interface RejectListener {
+        /**
+         * @param src     what the rejected call was given: the entity, list or criteria, or null
+         * @param dropped true if the call had been queued and was dropped to make room for a newer one
+         */
+        void onRejected(Object src, boolean dropped);
+    }
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    private int priority = PRIORITY_NORMAL;
+    private int oncePriority = -1;
+
+    /**
+     * Default priority of calls without {@link #withPriority(int)}.
+     */
+    public void setPriority(int priority) {
+        this.priority = checkPriority(priority);
+    }
+
+    /**
+     * Priority of the next call only, e.g. {@code async.withPriority(PRIORITY_HIGH).read(key)}.
+     * A write still never overtakes an earlier call from its own thread, and a read never an
+     * earlier write from it. Reads of one thread may pass each other.
+     */
+    public AsyncDatabaseOperator<DATA> withPriority(int priority) {
+        oncePriority = checkPriority(priority);
+        return this;
+    }
+
+    /**
+     * A queued call waiting longer than this is served ahead of higher priorities, 500ms by default.
+     */
+    public void setStarvationMillis(long millis) {
+        asyncExecutor.setStarvationMillis(millis);
+    }
+
+    private static int checkPriority(int priority) {
+        if (priority < PRIORITY_LOW || priority > PRIORITY_HIGH)
+            throw new IllegalArgumentException("unknown priority: " + priority);
+        return priority;
+    }
+
+    private int takePriority() {
+        int p = oncePriority;
+        oncePriority = -1;
+        return p < 0 ? priority : p;
+    }
+
     private AsyncListener listener;
     private AsyncListener onceListener;
 
@@ -290,12 +762,24 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
         void onDone(int count, Object src);
     }
 
+    /**
+     * Told on the main thread after each chunk of a chunked write, see {@link #enableChunkedWrites}.
+     */
+    public interface AsyncProgressListener extends AsyncListener {
+        void onProgress(int done, int total, Object src);
+    }
+
     static class AsyncExecutor extends Handler implements ThreadFactory {
 
         final static int MSG_SAVE = 100;
         final static int MSG_READ = 101;
         final static int MSG_DELETE = 102;
         final static int MSG_COUNT = 103;
+        final static int MSG_REJECT = 104;
+        final static int MSG_DROP = 105;
+        final static int MSG_STREAM = 106;
+        final static int MSG_CHUNK = 107;
+        final static int MSG_PROGRESS = 108;
 
         static Thread.UncaughtExceptionHandler uncaughtExceptionHandler = new Thread.UncaughtExceptionHandler() {
             @Override
@@ -306,19 +790,296 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
         };
 
         private final String TAG;
-        private final ExecutorService asyncService;
+        private final LaneQueue queue;
+        private final ThreadPoolExecutor asyncService;
         private final AsyncDatabaseOperator asyncDatabaseOperator;
 
+        private volatile ThreadPoolExecutor readService;
+        private volatile long starvationMillis = 500;
+
+        // weak, a finished task may be collected and is no dependency any more
+        private final ThreadLocal<WeakReference<AsyncTask>> lastWrite = new ThreadLocal<>();
+        private final ThreadLocal<WeakReference<AsyncTask>> lastTask = new ThreadLocal<>();
+
+        private final ConcurrentHashMap<ReadKey, AsyncTask> inFlight = new ConcurrentHashMap<>();
+
+        private volatile int capacity = Integer.MAX_VALUE;
+        private volatile int overflow = OVERFLOW_BLOCK;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Object notFull = new Object();
+        private volatile int blocked;
+        private volatile long queueWaitNanos;
+        private volatile RejectListener rejectListener;
+
         public AsyncExecutor(AsyncDatabaseOperator asyncDatabaseOperator) {
             super(Looper.getMainLooper());
             this.TAG = asyncDatabaseOperator.getLogTag();
             this.asyncDatabaseOperator = asyncDatabaseOperator;
-            this.asyncService = Executors.newSingleThreadExecutor(this);
+            this.queue = new LaneQueue();
+            this.asyncService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue, this) {
+                @Override
+                protected void beforeExecute(Thread t, Runnable r) {
+                    taken(r);
+                }
+
+                @Override
+                protected void afterExecute(Runnable r, Throwable t) {
+                    finished(r);
+                }
+            };
+        }
+
+        synchronized void enableConcurrentReads(int maxReaders) {
+            if (maxReaders < 1)
+                throw new IllegalArgumentException("maxReaders < 1: " + maxReaders);
+
+            ThreadPoolExecutor readers = readService;
+            if (readers != null) {
+                readers.setMaximumPoolSize(Math.max(maxReaders, readers.getCorePoolSize()));
+                readers.setCorePoolSize(maxReaders);
+                readers.setMaximumPoolSize(maxReaders);
+                return;
+            }
+
+            LaneQueue readQueue = new LaneQueue();
+            readQueue.setStarvationMillis(starvationMillis);
+            readers = new ThreadPoolExecutor(maxReaders, maxReaders, 30, TimeUnit.SECONDS, readQueue, this) {
+                @Override
+                protected void beforeExecute(Thread t, Runnable r) {
+                    taken(r);
+                }
+
+                @Override
+                protected void afterExecute(Runnable r, Throwable t) {
+                    finished(r);
+                    // a write of the same caller may wait for this read
+                    queue.wake();
+                }
+            };
+            readers.allowCoreThreadTimeOut(true);
+            readService = readers;
+        }
+
+        synchronized void disableConcurrentReads() {
+            ThreadPoolExecutor readers = readService;
+            readService = null;
+            if (readers != null)
+                readers.shutdown();
+        }
+
+        void setQueueCapacity(int capacity, int overflow) {
+            if (capacity < 1)
+                throw new IllegalArgumentException("capacity < 1: " + capacity);
+            if (overflow < OVERFLOW_BLOCK || overflow > OVERFLOW_DROP_OLDEST_READ)
+                throw new IllegalArgumentException("unknown overflow: " + overflow);
+
+            this.overflow = overflow;
+            this.capacity = capacity;
+            signalNotFull();
+        }
+
+        synchronized void setStarvationMillis(long millis) {
+            starvationMillis = millis;
+            queue.setStarvationMillis(millis);
+            ThreadPoolExecutor readers = readService;
+            if (readers != null)
+                ((LaneQueue) readers.getQueue()).setStarvationMillis(millis);
+        }
+
+        private void taken(Runnable r) {
+            if (!(r instanceof AsyncTask))
+                return;
+
+            AsyncTask task = (AsyncTask) r;
+            task.started = true;
+            task.after = null;
+
+            long wait = System.nanoTime() - task.queuedAt;
+            queueWaitNanos += (wait - queueWaitNanos) >> 3;
+
+            pending.decrementAndGet();
+            signalNotFull();
+        }
+
+        void finished(Runnable r) {
+            if (!(r instanceof AsyncTask))
+                return;
+
+            AsyncTask task = (AsyncTask) r;
+            // a read that failed never released its followers
+            if (task.flight != null)
+                release(0, 0, task);
+            if (!task.read)
+                invalidateFlights();
+        }
+
+        /**
+         * @return true if the task joined an identical read in flight and must not be executed
+         */
+        boolean join(ReadKey key, AsyncTask task) {
+            AsyncTask last = lastWrite();
+            if (last != null && !last.done)
+                return false;
+
+            while (true) {
+                AsyncTask leader = inFlight.get(key);
+                if (leader != null) {
+                    if (leader.flight.attach(task)) {
+                        // a later write of this thread must wait for the read it shares
+                        lastTask.set(new WeakReference<>(leader));
+                        return true;
+                    }
+                    inFlight.remove(key, leader);
+                    continue;
+                }
+
+                task.flight = new Flight(key);
+                if (inFlight.putIfAbsent(key, task) == null)
+                    return false;
+                task.flight = null;
+            }
+        }
+
+        /**
+         * Hand the leader's result to the callers that joined it.
+         *
+         * @param msg message for each follower, 0 to just discard them
+         */
+        void release(int msg, int count, AsyncTask leader) {
+            Flight flight = leader.flight;
+            inFlight.remove(flight.key, leader);
+            List<AsyncTask> followers = flight.close();
+            if (followers == null)
+                return;
+
+            if (msg == 0) {
+                if (!followers.isEmpty())
+                    Log.w(TAG, "release: " + followers.size() + " joined reads got no result");
+                return;
+            }
+            for (AsyncTask follower : followers) {
+                follower.rets = leader.rets;
+                sendAsyncMessage(msg, count, follower);
+            }
+        }
+
+        private void invalidateFlights() {
+            if (!inFlight.isEmpty())
+                inFlight.clear();
+        }
+
+        private void signalNotFull() {
+            if (blocked > 0) {
+                synchronized (notFull) {
+                    notFull.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return false if the task must not be queued
+         */
+        private boolean admit(AsyncTask task) {
+            while (true) {
+                int p = pending.get();
+                if (p < capacity || isExecutorThread()) {
+                    if (pending.compareAndSet(p, p + 1)) {
+                        task.queuedAt = System.nanoTime();
+                        return true;
+                    }
+                    continue;
+                }
+
+                if (overflow == OVERFLOW_REJECT) {
+                    reject(MSG_REJECT, task);
+                    return false;
+                }
+
+                if (overflow == OVERFLOW_DROP_OLDEST_READ && dropOldestRead())
+                    continue;
+
+                // the executor may be waiting for the main thread, blocking it could deadlock
+                if (Looper.myLooper() == getLooper()) {
+                    Log.w(TAG, "admit: queue full, rejected on the main thread");
+                    reject(MSG_REJECT, task);
+                    return false;
+                }
+
+                synchronized (notFull) {
+                    blocked++;
+                    try {
+                        while (pending.get() >= capacity) {
+                            notFull.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        reject(MSG_REJECT, task);
+                        return false;
+                    } finally {
+                        blocked--;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Drops the oldest read of the lowest priority.
+         */
+        private boolean dropOldestRead() {
+            AsyncTask oldest = oldestRead(queue);
+            ThreadPoolExecutor readers = readService;
+            if (readers != null) {
+                AsyncTask read = oldestRead(readers.getQueue());
+                if (oldest == null || (read != null && (read.priority < oldest.priority
+                        || (read.priority == oldest.priority && read.queuedAt - oldest.queuedAt < 0))))
+                    oldest = read;
+            }
+
+            if (oldest == null)
+                return false;
+
+            if (queue.remove(oldest) || (readers != null && readers.getQueue().remove(oldest))) {
+                pending.decrementAndGet();
+                // never runs, tasks chained after it must not wait
+                oldest.done = true;
+                queue.wake();
+                reject(MSG_DROP, oldest);
+            }
+            // lost the race to a consumer, either way there is room to try again
+            return true;
+        }
+
+        private void reject(int msg, AsyncTask task) {
+            if (task.flight != null)
+                release(msg, 0, task);
+            sendAsyncMessage(msg, 0, task);
+        }
+
+        private static AsyncTask oldestRead(Iterable<Runnable> queue) {
+            for (Runnable r : queue) {
+                if (r instanceof AsyncTask && ((AsyncTask) r).read)
+                    return (AsyncTask) r;
+            }
+            return null;
+        }
+
+        private boolean isExecutorThread() {
+            Thread t = Thread.currentThread();
+            return t instanceof ExecutorThread && ((ExecutorThread) t).executor == this;
+        }
+
+        static final class ExecutorThread extends Thread {
+            final AsyncExecutor executor;
+
+            ExecutorThread(AsyncExecutor executor, Runnable r) {
+                super(r);
+                this.executor = executor;
+            }
         }
 
         @Override
         public Thread newThread(Runnable r) {
-            Thread thread = new Thread(r);
+            Thread thread = new ExecutorThread(this, r);
             thread.setName("Async" + asyncDatabaseOperator.getLogTag() + "#" + thread.getId());
             thread.setUncaughtExceptionHandler(uncaughtExceptionHandler);
             return thread;
@@ -338,20 +1099,156 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
                 case MSG_SAVE:
                 case MSG_DELETE:
                 case MSG_COUNT:
+                case MSG_STREAM:
                     if (msg.obj != null) {
                         AsyncTask asyncTask = (AsyncTask) msg.obj;
                         if (asyncTask.listener != null)
                             asyncTask.listener.onDone(msg.arg1, asyncTask.src);
                     }
                     break;
+                case MSG_CHUNK:
+                    ((Chunk<?>) msg.obj).consume();
+                    break;
+                case MSG_PROGRESS:
+                    AsyncListener listener = ((AsyncTask) msg.obj).listener;
+                    if (listener instanceof AsyncProgressListener)
+                        ((AsyncProgressListener) listener).onProgress(msg.arg1, msg.arg2, ((AsyncTask) msg.obj).src);
+                    break;
+                case MSG_REJECT:
+                case MSG_DROP:
+                    RejectListener rejectListener = this.rejectListener;
+                    if (rejectListener != null)
+                        rejectListener.onRejected(((AsyncTask) msg.obj).src, msg.what == MSG_DROP);
+                    else
+                        Log.w(TAG, "handleMessage: " + (msg.what == MSG_DROP ? "dropped " : "rejected ") + ((AsyncTask) msg.obj).src);
+                    break;
                 default:
                     Log.d(TAG, "handleMessage: dispatch to custom handleMessage");
                     asyncDatabaseOperator.handleMessage(msg);
             }
         }
 
+        private AsyncTask lastWrite() {
+            WeakReference<AsyncTask> ref = lastWrite.get();
+            return ref == null ? null : ref.get();
+        }
+
+        private AsyncTask lastTask() {
+            WeakReference<AsyncTask> ref = lastTask.get();
+            return ref == null ? null : ref.get();
+        }
+
         public void execute(AsyncTask command) {
-            asyncService.submit(command);
+            if (!admit(command))
+                return;
+
+            AsyncTask last = lastTask();
+            if (last != null && !last.passed()) {
+                command.after = last;
+                // the first task of a pool skips its queue, and with it the wait
+                asyncService.prestartCoreThread();
+            }
+            WeakReference<AsyncTask> ref = new WeakReference<>(command);
+            lastWrite.set(ref);
+            lastTask.set(ref);
+
+            invalidateFlights();
+
+            asyncService.execute(command);
+        }
+
+        public void executeRead(AsyncTask command) {
+            command.read = true;
+            if (!admit(command))
+                return;
+
+            lastTask.set(new WeakReference<>(command));
+
+            ThreadPoolExecutor readers = readService;
+            AsyncTask last = lastWrite();
+            if (readers == null || (last != null && !last.done)) {
+                // kept while running too, so runQueuedReads knows the read waits for it
+                if (last != null && !last.done)
+                    command.after = last;
+                asyncService.execute(command);
+                return;
+            }
+
+            try {
+                readers.execute(command);
+            } catch (RejectedExecutionException e) {
+                // raced with disableConcurrentReads
+                asyncService.execute(command);
+            }
+        }
+
+        /**
+         * Only valid on the executor thread, which is the sole consumer of the queue.
+         */
+        Runnable peekQueued() {
+            return queue.peek();
+        }
+
+        boolean takeQueued(Runnable r) {
+            if (!queue.remove(r))
+                return false;
+            taken(r);
+            return true;
+        }
+
+        Runnable pollQueued(long timeoutNanos) {
+            try {
+                Runnable r = queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+                taken(r);
+                return r;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        /**
+         * Runs the queued reads that wait for no write or only for finished ones, on the executor
+         * thread between the chunks of writer, for at most budgetNanos if positive.
+         *
+         * @return reads run
+         */
+        int runQueuedReads(AsyncTask writer, long budgetNanos) {
+            long b = System.nanoTime();
+            int ran = 0;
+            for (Runnable r : queue) {
+                if (!(r instanceof AsyncTask))
+                    continue;
+                AsyncTask task = (AsyncTask) r;
+                AsyncTask after = task.after;
+                if (!task.read || (after != null && (after == writer || !after.done)))
+                    continue;
+                if (!takeQueued(task))
+                    continue;
+
+                task.run();
+                finished(task);
+                ran++;
+                if (budgetNanos > 0 && System.nanoTime() - b > budgetNanos)
+                    break;
+            }
+            return ran;
+        }
+
+        void sendProgress(int done, int total, AsyncTask task) {
+            obtainMessage(MSG_PROGRESS, done, total, task).sendToTarget();
+        }
+
+        /**
+         * Runs consumer on the main thread and waits for it. The main thread never blocks in
+         * {@link #admit}, so it always gets to the chunk.
+         *
+         * @return what consumer returned, false if it threw or the wait was interrupted
+         */
+        <DATA> boolean handOver(ChunkConsumer<DATA> consumer, List<DATA> chunk) {
+            Chunk<DATA> handOver = new Chunk<>(consumer, chunk);
+            obtainMessage(MSG_CHUNK, handOver).sendToTarget();
+            return handOver.await();
         }
 
         public void sendAsyncMessage(int msg, int count, AsyncTask objects) {
@@ -363,19 +1260,92 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
         }
     }
 
-    static abstract class AsyncTask implements Callable {
+    private static final class Chunk<DATA> {
+        private final ChunkConsumer<DATA> consumer;
+        private final List<DATA> chunk;
+        private boolean consumed;
+        private boolean more;
+
+        Chunk(ChunkConsumer<DATA> consumer, List<DATA> chunk) {
+            this.consumer = consumer;
+            this.chunk = chunk;
+        }
+
+        void consume() {
+            boolean ret = false;
+            try {
+                ret = consumer.onChunk(chunk);
+            } catch (Exception e) {
+                Log.e("AsyncDatabaseOperator", "onChunk: ", e);
+            } finally {
+                synchronized (this) {
+                    more = ret;
+                    consumed = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized boolean await() {
+            while (!consumed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return more;
+        }
+    }
+
+    static abstract class AsyncTask implements Callable, Runnable {
         Object src;
         Object rets;
 
         AsyncListener listener;
         AsyncReadListener readListener;
 
+        int priority = PRIORITY_NORMAL;
+        /**
+         * the task its calling thread submitted before, this task must not start ahead of it: for
+         * a write the last call of any kind, for a read the last write
+         */
+        volatile AsyncTask after;
+        volatile boolean started;
+        volatile boolean done;
+        boolean read;
+        /**
+         * set on a deduplicated read that others may join
+         */
+        Flight flight;
+        long queuedAt;
+
         AsyncTask(Object data) {
             src = data;
         }
 
         AsyncTask() {
         }
+
+        /**
+         * @return true once tasks chained after this one may start, a write is run to its end by
+         * the single writer thread once started, a read may run on a reader thread meanwhile
+         */
+        boolean passed() {
+            return done || (started && !read);
+        }
+
+        @Override
+        public void run() {
+            try {
+                call();
+            } catch (Exception e) {
+                Log.e("AsyncDatabaseOperator", "run: ", e);
+            } finally {
+                done = true;
+            }
+        }
     }
 
     public final void execute(final Runnable command, AsyncListener listener) {
@@ -392,6 +1362,27 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
         });
     }
 
+    /**
+     * Runs command on the writer thread at low priority unless calls are queued.
+     *
+     * @return false if calls were queued, command then was not run
+     */
+    boolean executeWhenIdle(final Runnable command) {
+        if (getQueueDepth() > 0)
+            return false;
+
+        AsyncTask task = new AsyncTask() {
+            @Override
+            public Object call() {
+                command.run();
+                return this;
+            }
+        };
+        task.priority = PRIORITY_LOW;
+        asyncExecutor.execute(task);
+        return true;
+    }
+
     public void handleMessage(Message msg) {
 
     }
@@ -403,6 +1394,8 @@ public final class AsyncDatabaseOperator<DATA> implements IDatabaseOperation<DAT
     }
 
     private void sendAsyncMessage(int msg, int count, AsyncTask task) {
+        if (task.flight != null)
+            asyncExecutor.release(msg, count, task);
         asyncExecutor.sendAsyncMessage(msg, count, task);
     }
 }
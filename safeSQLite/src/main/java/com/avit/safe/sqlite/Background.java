@@ -0,0 +1,38 @@
+package com.avit.safe.sqlite;
+
+import android.os.Build;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The one daemon thread behind the background work of every cache, write-behind flushes and
+ * refreshes, so caches do not start threads of their own.
+ */
+final class Background {
+
+    private static ScheduledExecutorService executor;
+
+    private Background() {
+    }
+
+    static synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SafeSQLite-background");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // API 21, before it a cancelled task stays queued until its delay ran out, the
+            // few cancelled here are periodic checks of closed caches and connections
+            if (Build.VERSION.SDK_INT >= 21)
+                pool.setRemoveOnCancelPolicy(true);
+            executor = pool;
+        }
+        return executor;
+    }
+}
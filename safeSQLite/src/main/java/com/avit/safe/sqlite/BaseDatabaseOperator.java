@@ -2,37 +2,144 @@ package com.avit.safe.sqlite;
 
 import android.util.Log;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public abstract class BaseDatabaseOperator<KEY, DATA> implements IDatabaseOperation<DATA> {
+public abstract class BaseDatabaseOperator<KEY, DATA> implements IStreamOperation<DATA>, IPageOperation<DATA> {
 
-    private final Cache<KEY, DATA> memoryCache = new Cache<>(this);
+    private final Cache<KEY, DATA> memoryCache;
+    private final StripedLocks locks = new StripedLocks(64);
+
+    protected BaseDatabaseOperator() {
+        this(new Cache.Builder<KEY, DATA>());
+    }
+
+    protected BaseDatabaseOperator(Cache.Builder<KEY, DATA> cacheBuilder) {
+        this.memoryCache = new Cache<>(this, cacheBuilder);
+    }
 
     protected KEY dataKey(DATA data){
         throw new IllegalStateException("not implement");
     }
 
+    /**
+     * Loader of a read-through cache, see {@link Cache.Builder#readThrough(long)}.
+     *
+     * @return the entity stored under key, null if there is none
+     */
+    protected DATA load(KEY key){
+        throw new IllegalStateException("not implement");
+    }
+
+    /**
+     * Batch loader of the hot key warm-up, see {@link Cache.Builder#hotKeys}. Loads key by key
+     * unless overridden with a single query.
+     *
+     * @return the entities found, by key
+     */
+    protected Map<KEY, DATA> loadAll(List<KEY> keys){
+        Map<KEY, DATA> datas = new HashMap<>();
+        for (KEY key : keys) {
+            DATA data = load(key);
+            if (data != null)
+                datas.put(key, data);
+        }
+        return datas;
+    }
+
+    /**
+     * Persists the entities of a write-behind cache, see {@link Cache.Builder#writeBehind(int, long)}.
+     * Called on the background thread, or on the caller of {@link #flush()} and {@link #close()}.
+     *
+     * @return the number of rows written
+     */
+    protected int store(List<DATA> datas){
+        throw new IllegalStateException("not implement");
+    }
+
     public Cache<KEY, DATA> getMemoryCache() {
         return memoryCache;
     }
 
+    /**
+     * Subclasses writing rows hold the keys of the entities, or the table, around the write and
+     * the call to super, so the cache and the rows agree on which write came last.
+     */
+    protected final StripedLocks getLocks() {
+        return locks;
+    }
+
+    protected final List<KEY> dataKeys(List<DATA> datas) {
+        List<KEY> keys = new ArrayList<>(datas.size());
+        for (DATA data : datas) {
+            keys.add(dataKey(data));
+        }
+        return keys;
+    }
+
+    /**
+     * Stores the pending writes of a write-behind cache now.
+     */
+    public void flush() {
+        getMemoryCache().flush();
+    }
+
+    /**
+     * Flushes a write-behind cache, later saves write through {@link #store}, and saves the hot keys.
+     */
+    public void close() {
+        getMemoryCache().close();
+    }
+
+    /**
+     * With a write-behind cache the entity is only cached and queued for {@link #store},
+     * subclasses then must not persist it themselves.
+     */
     @Override
-    public synchronized int saveOrUpdate(DATA data) {
-        getMemoryCache().putCache(data);
-        return 0;
+    public int saveOrUpdate(DATA data) {
+        if (!getMemoryCache().isWriteBehind() && !getMemoryCache().isMemoryCacheEnabled())
+            return 0;
+
+        KEY key = dataKey(data);
+        locks.lock(key);
+        try {
+            if (getMemoryCache().isWriteBehind())
+                return getMemoryCache().writeBehind(data);
+            getMemoryCache().putCache(data);
+            return 0;
+        } finally {
+            locks.unlock(key);
+        }
     }
 
     @Override
-    public synchronized int saveOrUpdate(List<DATA> datas) {
-        getMemoryCache().putCache(datas);
-        return 0;
+    public int saveOrUpdate(List<DATA> datas) {
+        if (!getMemoryCache().isWriteBehind() && !getMemoryCache().isMemoryCacheEnabled())
+            return 0;
+
+        int[] taken = locks.lockAll(dataKeys(datas));
+        try {
+            if (getMemoryCache().isWriteBehind())
+                return getMemoryCache().writeBehind(datas);
+            getMemoryCache().putCache(datas);
+            return 0;
+        } finally {
+            locks.unlockAll(taken);
+        }
     }
 
     @Override
     public DATA read(DATA data) {
-        return getMemoryCache().getCache(dataKey(data));
+        return getMemoryCache().loadCache(dataKey(data));
     }
 
     @Override
@@ -53,28 +160,95 @@ public abstract class BaseDatabaseOperator<KEY, DATA> implements IDatabaseOperat
         return Collections.emptyList();
     }
 
+    /**
+     * Pages through {@link #readAfter}, a full page ends with the token of its last row's
+     * {@link #sortKey}, so the page after the last full one may be empty.
+     */
     @Override
-    public synchronized int delete(DATA data) {
-        getMemoryCache().removeCache(dataKey(data));
-        return 0;
+    public Page<DATA> readPage(int pageSize, String token, Map<String, Object> objects) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize <= 0: " + pageSize);
+
+        List<DATA> datas = readAfter(pageSize, Page.decode(token), objects);
+        if (datas == null || datas.isEmpty())
+            return Page.empty();
+        return Page.of(datas, datas.size() < pageSize ? null : sortKey(datas.get(datas.size() - 1)));
+    }
+
+    /**
+     * Reads up to pageSize rows matching objects whose sort key comes after the given one,
+     * ordered by it, e.g. {@code WHERE key > ? ORDER BY key LIMIT ?}.
+     *
+     * @param after sort key of the previous page's last row, null for the first page
+     */
+    protected List<DATA> readAfter(int pageSize, Object after, Map<String, Object> objects) {
+        Log.w(getLogTag(), "dummy read: pageSize = " + pageSize + ", after = " + after + ", " + objects);
+        return Collections.emptyList();
+    }
+
+    /**
+     * Key the rows are paged by, the entity's key unless overridden; Long, Integer or String.
+     */
+    protected Object sortKey(DATA data) {
+        return dataKey(data);
     }
 
+    /**
+     * Chunks the list of read(objects) or read(), override to read a cursor incrementally.
+     */
     @Override
-    public synchronized int delete(Map<String, Object> objects) {
+    public int stream(Map<String, Object> objects, int chunkSize, ChunkConsumer<DATA> consumer) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize <= 0: " + chunkSize);
+
+        return Chunks.hand(objects == null ? read() : read(objects), chunkSize, consumer);
+    }
+
+    /**
+     * Drops the cached and the pending write-behind entity, subclasses call this before deleting
+     * the row so a flush can not write it back, and {@link Cache#evictCache(Object)} after it.
+     */
+    @Override
+    public int delete(DATA data) {
+        KEY key = dataKey(data);
+        locks.lock(key);
+        try {
+            getMemoryCache().removeCache(key);
+            return 0;
+        } finally {
+            locks.unlock(key);
+        }
+    }
+
+    @Override
+    public int delete(Map<String, Object> objects) {
         Log.w(getLogTag(), "dummy delete: " + objects);
         return 0;
     }
 
     @Override
-    public synchronized int delete(List<DATA> datas) {
-        getMemoryCache().removeCache(datas);
-        return 0;
+    public int delete(List<DATA> datas) {
+        int[] taken = locks.lockAll(dataKeys(datas));
+        try {
+            getMemoryCache().removeCache(datas);
+            return 0;
+        } finally {
+            locks.unlockAll(taken);
+        }
     }
 
+    /**
+     * Takes the table exclusively, see {@link StripedLocks#lockTable()}.
+     */
     @Override
-    public synchronized int delete() {
-        getMemoryCache().removeCache();
-        return 0;
+    public int delete() {
+        locks.lockTable();
+        try {
+            getMemoryCache().removeCache();
+            return 0;
+        } finally {
+            locks.unlockTable();
+        }
     }
 
     @Override
@@ -97,11 +271,129 @@ public abstract class BaseDatabaseOperator<KEY, DATA> implements IDatabaseOperat
 
     public final static class Cache<KEY, DATA>{
         private final BaseDatabaseOperator<KEY, DATA> databaseOperator;
-        private final MemoryCache<KEY, DATA> memoryCache = new MemoryCache<>(5 * 1024 * 1024);
+        private final MemoryCache<KEY, Entry<DATA>> memoryCache;
         private volatile boolean isEnableMemoryCache;
 
+        private final long expireAfterWriteNanos;
+        private final long expireAfterAccessNanos;
+        private final long refreshAfterWriteNanos;
+        private final Executor refreshExecutor;
+        // like loading, a refresh whose key is written meanwhile is marked stale
+        private final ConcurrentHashMap<KEY, Load<DATA>> refreshing = new ConcurrentHashMap<>();
+
+        private final boolean readThrough;
+        private final long negativeTtlNanos;
+        private final MemoryCache<KEY, Long> absentCache;
+        // a load whose key is written meanwhile is marked stale and not cached
+        private final ConcurrentHashMap<KEY, Load<DATA>> loading = new ConcurrentHashMap<>();
+        // bumped when the whole cache is dropped, which makes every running load stale
+        private final AtomicLong cleared = new AtomicLong();
+        // the keys of the warm-up batch being loaded
+        private final ConcurrentHashMap<KEY, Load<DATA>> warming = new ConcurrentHashMap<>();
+
+        private final WriteBehind<KEY, DATA> writeBehind;
+        private final HotKeys<KEY, DATA> hotKeys;
+
+        private final StripedCounter hits = new StripedCounter();
+        private final StripedCounter misses = new StripedCounter();
+        private final StripedCounter loads = new StripedCounter();
+        private final StripedCounter loadFailures = new StripedCounter();
+        private final StripedCounter loadNanos = new StripedCounter();
+        private final StripedCounter[] removals = {
+                new StripedCounter(), new StripedCounter(), new StripedCounter(), new StripedCounter()
+        };
+        private volatile RemovalListener<KEY, DATA> removalListener;
+
         public Cache(BaseDatabaseOperator<KEY, DATA> operator) {
+            this(operator, new Builder<KEY, DATA>());
+        }
+
+        /**
+         * @throws IllegalStateException for read-through or refresh without an override of
+         *                               {@link BaseDatabaseOperator#load}
+         */
+        public Cache(BaseDatabaseOperator<KEY, DATA> operator, Builder<KEY, DATA> builder) {
+            if ((builder.readThrough || builder.refreshAfterWriteMillis > 0) && !overridesLoad(operator))
+                throw new IllegalStateException((builder.readThrough ? "read-through" : "refreshAfterWrite")
+                        + " needs " + operator.getClass().getName() + " to override load");
             this.databaseOperator = operator;
+            final Weigher<KEY, DATA> weigher = builder.weigher;
+            this.memoryCache = new MemoryCache<KEY, Entry<DATA>>(builder.maximumWeight(), weigher == null ? null
+                    : new Weigher<KEY, Entry<DATA>>() {
+                @Override
+                public int weigh(KEY key, Entry<DATA> entry) {
+                    return weigher.weigh(key, entry.data);
+                }
+            }) {
+                @Override
+                protected void entryRemoved(boolean evicted, KEY key, Entry<DATA> oldValue, Entry<DATA> newValue) {
+                    removed(key, oldValue.data, evicted ? RemovalListener.CAUSE_SIZE
+                            : oldValue.expired ? RemovalListener.CAUSE_EXPIRED
+                            : newValue != null ? RemovalListener.CAUSE_REPLACED : RemovalListener.CAUSE_EXPLICIT);
+                }
+            };
+            this.expireAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(builder.expireAfterWriteMillis);
+            this.expireAfterAccessNanos = TimeUnit.MILLISECONDS.toNanos(builder.expireAfterAccessMillis);
+            this.refreshAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(builder.refreshAfterWriteMillis);
+            this.refreshExecutor = builder.refreshExecutor != null ? builder.refreshExecutor : Background.executor();
+            this.readThrough = builder.readThrough;
+            this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(builder.negativeTtlMillis);
+            this.absentCache = readThrough && negativeTtlNanos > 0
+                    ? new MemoryCache<KEY, Long>(builder.negativeCacheSize) : null;
+            this.writeBehind = builder.writeBehindBatchSize > 0
+                    ? new WriteBehind<>(operator, builder.writeBehindBatchSize, builder.writeBehindDelayMillis) : null;
+            this.hotKeys = builder.hotKeysFile != null
+                    ? new HotKeys<>(this, operator, builder.hotKeysFile, builder.hotKeyCodec, builder.hotKeyCount,
+                    builder.hotKeysSaveIntervalMillis, builder.warmUpBudgetMillis) : null;
+        }
+
+        private static boolean overridesLoad(BaseDatabaseOperator<?, ?> operator) {
+            for (Class<?> c = operator.getClass(); c != BaseDatabaseOperator.class; c = c.getSuperclass()) {
+                try {
+                    // KEY erases to Object, an override with a narrower key type has a bridge method
+                    c.getDeclaredMethod("load", Object.class);
+                    return true;
+                } catch (NoSuchMethodException e) {
+                    // not in this class
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Current weight of the cached entities, or their number without a weigher.
+         */
+        public int weight() {
+            return memoryCache.size();
+        }
+
+        public int maximumWeight() {
+            return memoryCache.maxSize();
+        }
+
+        public void setRemovalListener(RemovalListener<KEY, DATA> removalListener) {
+            this.removalListener = removalListener;
+        }
+
+        void removed(KEY key, DATA data, int cause) {
+            removals[cause].increment();
+            RemovalListener<KEY, DATA> listener = removalListener;
+            if (listener != null) {
+                try {
+                    listener.onRemoval(key, data, cause);
+                } catch (Throwable e) {
+                    Log.e(databaseOperator.getLogTag(), "onRemoval: " + key, e);
+                }
+            }
+        }
+
+        public CacheStats stats() {
+            long[] removed = new long[removals.length];
+            for (int i = 0; i < removed.length; i++) {
+                removed[i] = removals[i].sum();
+            }
+            return new CacheStats(hits.sum(), misses.sum(), loads.sum(), loadFailures.sum(), loadNanos.sum(),
+                    removed, memoryCache.size(), memoryCache.maxSize());
         }
 
         public final void  enableMemoryCache(){
@@ -112,47 +404,665 @@ public abstract class BaseDatabaseOperator<KEY, DATA> implements IDatabaseOperat
             isEnableMemoryCache = false;
         }
 
+        public final boolean isMemoryCacheEnabled() {
+            return isEnableMemoryCache;
+        }
+
         public KEY dataKey(DATA data){
             return databaseOperator.dataKey(data);
         }
 
         public final DATA getCache(KEY key){
             if (isEnableMemoryCache){
-                return memoryCache.get(key);
+                DATA data = lookup(key);
+                (data != null ? hits : misses).increment();
+                return data;
             }
+            // an unflushed write is newer than the row
+            if (writeBehind != null)
+                return writeBehind.pending(key);
             return null;
         }
 
+        private DATA lookup(KEY key) {
+            Entry<DATA> entry = memoryCache.get(key);
+            if (entry != null) {
+                if (expireAfterWriteNanos == 0 && expireAfterAccessNanos == 0 && refreshAfterWriteNanos == 0)
+                    return entry.data;
+
+                long now = System.nanoTime();
+                if ((expireAfterWriteNanos > 0 && now - entry.writtenAt >= expireAfterWriteNanos)
+                        || (expireAfterAccessNanos > 0 && now - entry.accessedAt >= expireAfterAccessNanos)) {
+                    entry.expired = true;
+                    memoryCache.remove(key, entry);
+                } else {
+                    if (expireAfterAccessNanos > 0)
+                        entry.accessedAt = now;
+                    if (refreshAfterWriteNanos > 0 && now - entry.writtenAt >= refreshAfterWriteNanos)
+                        refresh(key);
+                    return entry.data;
+                }
+            }
+            if (writeBehind != null)
+                return writeBehind.pending(key);
+            return null;
+        }
+
+        private void cache(KEY key, DATA data) {
+            memoryCache.put(key, new Entry<>(data, System.nanoTime()));
+        }
+
+        /**
+         * Reloads key on the refresh executor while readers keep getting the cached entity.
+         */
+        private void refresh(final KEY key) {
+            // an unflushed write is newer than the row
+            if (writeBehind != null && writeBehind.pending(key) != null)
+                return;
+            final Load<DATA> refresh = new Load<>();
+            if (refreshing.putIfAbsent(key, refresh) != null)
+                return;
+
+            final long clear = cleared.get();
+            try {
+                refreshExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long begin = System.nanoTime();
+                        try {
+                            DATA data = databaseOperator.load(key);
+                            if (!refresh.isStale(cleared, clear)) {
+                                if (data != null)
+                                    cache(key, data);
+                                else
+                                    memoryCache.remove(key);
+
+                                if (refresh.isStale(cleared, clear))
+                                    forget(key);
+                            }
+                        } catch (Throwable e) {
+                            loadFailures.increment();
+                            Log.w(databaseOperator.getLogTag(), "refresh: " + key, e);
+                        } finally {
+                            loads.increment();
+                            loadNanos.add(System.nanoTime() - begin);
+                            refreshing.remove(key, refresh);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshing.remove(key, refresh);
+            }
+        }
+
+        /**
+         * Like {@link #getCache}, but with {@link Builder#readThrough} a miss is loaded through
+         * {@link BaseDatabaseOperator#load}. Concurrent misses on one key share a single load,
+         * and keys found absent are remembered for the negative TTL.
+         */
+        public final DATA loadCache(KEY key){
+            if (!readThrough)
+                return getCache(key);
+
+            DATA data;
+            if (!isEnableMemoryCache) {
+                // an unflushed write is newer than the row
+                if (writeBehind != null && (data = writeBehind.pending(key)) != null)
+                    return data;
+                return databaseOperator.load(key);
+            }
+
+            data = lookup(key);
+            if (data != null) {
+                hits.increment();
+                return data;
+            }
+
+            if (isAbsent(key)) {
+                hits.increment();
+                return null;
+            }
+            misses.increment();
+
+            Load<DATA> load = new Load<>();
+            Load<DATA> running = loading.putIfAbsent(key, load);
+            if (running != null)
+                return running.await();
+
+            long clear = cleared.get();
+            long begin = System.nanoTime();
+            try {
+                try {
+                    data = databaseOperator.load(key);
+                } finally {
+                    loads.increment();
+                    loadNanos.add(System.nanoTime() - begin);
+                }
+                if (!load.isStale(cleared, clear)) {
+                    if (data != null)
+                        cache(key, data);
+                    else if (absentCache != null)
+                        absentCache.put(key, System.nanoTime() + negativeTtlNanos);
+
+                    // a write slipped in while caching, let the next read load again
+                    if (load.isStale(cleared, clear))
+                        forget(key);
+                }
+                load.complete(data, null);
+                return data;
+            } catch (RuntimeException | Error e) {
+                loadFailures.increment();
+                load.complete(null, e);
+                throw e;
+            } finally {
+                loading.remove(key, load);
+            }
+        }
+
+        private boolean isAbsent(KEY key) {
+            if (absentCache == null)
+                return false;
+
+            Long until = absentCache.get(key);
+            if (until == null)
+                return false;
+            if (System.nanoTime() - until < 0)
+                return true;
+
+            absentCache.remove(key);
+            return false;
+        }
+
+        private void forget(KEY key) {
+            memoryCache.remove(key);
+            if (absentCache != null)
+                absentCache.remove(key);
+        }
+
+        private void written(KEY key) {
+            Load<DATA> load = loading.get(key);
+            if (load != null)
+                load.stale = true;
+            Load<DATA> refresh = refreshing.get(key);
+            if (refresh != null)
+                refresh.stale = true;
+            Load<DATA> warm = warming.get(key);
+            if (warm != null)
+                warm.stale = true;
+            if (absentCache != null)
+                absentCache.remove(key);
+        }
+
         public final void putCache(DATA data){
             if (isEnableMemoryCache) {
-                memoryCache.put(dataKey(data), data);
+                KEY key = dataKey(data);
+                written(key);
+                cache(key, data);
             }
         }
 
         public final void putCache(List<DATA> datas){
             if (isEnableMemoryCache) {
                 for (DATA data : datas) {
-                    memoryCache.put(dataKey(data), data);
+                    KEY key = dataKey(data);
+                    written(key);
+                    cache(key, data);
+                }
+            }
+        }
+
+        public boolean isReadThrough() {
+            return readThrough;
+        }
+
+        public boolean isWriteBehind() {
+            return writeBehind != null;
+        }
+
+        /**
+         * Caches data and queues it for {@link BaseDatabaseOperator#store}, or stores it right
+         * away once closed.
+         *
+         * @return 1, or the rows stored once closed
+         */
+        public final int writeBehind(DATA data){
+            KEY key = dataKey(data);
+            written(key);
+            if (!writeBehind.put(key, data))
+                return databaseOperator.store(Collections.singletonList(data));
+            if (isEnableMemoryCache)
+                cache(key, data);
+            return 1;
+        }
+
+        public final int writeBehind(List<DATA> datas){
+            for (int i = 0; i < datas.size(); i++) {
+                DATA data = datas.get(i);
+                KEY key = dataKey(data);
+                written(key);
+                if (!writeBehind.put(key, data))
+                    return i + databaseOperator.store(datas.subList(i, datas.size()));
+                if (isEnableMemoryCache)
+                    cache(key, data);
+            }
+            return datas.size();
+        }
+
+        public final void flush() {
+            if (writeBehind != null)
+                writeBehind.flush();
+        }
+
+        public final void close() {
+            try {
+                if (writeBehind != null)
+                    writeBehind.close();
+            } finally {
+                if (hotKeys != null)
+                    hotKeys.close();
+            }
+        }
+
+        /**
+         * Writes the hot key snapshot now.
+         *
+         * @return false if there is none or it could not be written
+         */
+        public boolean saveHotKeys() {
+            return hotKeys != null && hotKeys.save();
+        }
+
+        /**
+         * Loads the entities of the saved hot keys in the background, call once the operator
+         * can load. Does nothing without {@link Builder#hotKeys}.
+         */
+        public void warmUp() {
+            if (hotKeys != null && isEnableMemoryCache)
+                hotKeys.warmUp();
+        }
+
+        List<KEY> hotKeys(int max) {
+            return memoryCache.hotKeys(max);
+        }
+
+        /**
+         * Registers keys before they are loaded for {@link #warm}, so writes of them meanwhile
+         * are noticed. Pass the result to {@link #endWarming} when done.
+         */
+        Warming<KEY, DATA> warming(List<KEY> keys) {
+            Warming<KEY, DATA> batch = new Warming<>(cleared.get());
+            for (KEY key : keys) {
+                Load<DATA> token = new Load<>();
+                // another warm-up has it
+                if (warming.putIfAbsent(key, token) == null)
+                    batch.tokens.put(key, token);
+            }
+            return batch;
+        }
+
+        /**
+         * Caches loaded entities whose keys are not cached yet, except those written since
+         * {@link #warming}.
+         *
+         * @return the number cached
+         */
+        int warm(Warming<KEY, DATA> batch, Map<KEY, DATA> datas) {
+            int warmed = 0;
+            for (Map.Entry<KEY, DATA> entry : datas.entrySet()) {
+                KEY key = entry.getKey();
+                Load<DATA> token = batch.tokens.get(key);
+                if (token == null || token.isStale(cleared, batch.clear) || memoryCache.get(key) != null)
+                    continue;
+                cache(key, entry.getValue());
+                if (token.isStale(cleared, batch.clear)) {
+                    forget(key);
+                    continue;
                 }
+                warmed++;
+            }
+            return warmed;
+        }
+
+        void endWarming(Warming<KEY, DATA> batch) {
+            for (Map.Entry<KEY, Load<DATA>> entry : batch.tokens.entrySet()) {
+                warming.remove(entry.getKey(), entry.getValue());
             }
         }
 
+        /**
+         * @return writes waiting to be flushed
+         */
+        public int unflushedWrites() {
+            return writeBehind == null ? 0 : writeBehind.unflushedWrites();
+        }
+
+        /**
+         * @return roughly how long the oldest unflushed write has waited
+         */
+        public long unflushedMillis() {
+            return writeBehind == null ? 0 : writeBehind.unflushedMillis();
+        }
+
+        public long flushedWrites() {
+            return writeBehind == null ? 0 : writeBehind.flushedWrites();
+        }
+
+        /**
+         * @return saves replaced by a later save of the same key before being flushed
+         */
+        public long collapsedWrites() {
+            return writeBehind == null ? 0 : writeBehind.collapsedWrites();
+        }
+
+        public long failedFlushes() {
+            return writeBehind == null ? 0 : writeBehind.failedFlushes();
+        }
+
         public final void removeCache(KEY key){
-            if (isEnableMemoryCache){
+            if (writeBehind != null)
+                writeBehind.remove(key);
+            evictCache(key);
+        }
+
+        public final void removeCache(List<DATA> datas) {
+            if (writeBehind != null) {
+                for (DATA data : datas) {
+                    writeBehind.remove(dataKey(data));
+                }
+            }
+            evictCache(datas);
+        }
+        public final void removeCache() {
+            if (writeBehind != null)
+                writeBehind.clear();
+            evictCache();
+        }
+
+        /**
+         * Drops the cached entity but not its pending write-behind write, and fails loads that
+         * raced with it. Deletes call it again once the row is gone, a load that ran before may
+         * have cached the row meanwhile.
+         */
+        public final void evictCache(KEY key) {
+            if (isEnableMemoryCache) {
+                written(key);
                 memoryCache.remove(key);
             }
         }
 
-        public final void removeCache(List<DATA> datas) {
+        public final void evictCache(List<DATA> datas) {
             if (isEnableMemoryCache) {
                 for (DATA data : datas) {
-                    memoryCache.remove(dataKey(data));
+                    KEY key = dataKey(data);
+                    written(key);
+                    memoryCache.remove(key);
                 }
             }
         }
-        public final void removeCache() {
+
+        public final void evictCache() {
             if (isEnableMemoryCache) {
-                memoryCache.evictAll();
+                cleared.incrementAndGet();
+                memoryCache.removeAll();
+                if (absentCache != null)
+                    absentCache.evictAll();
+            }
+        }
+
+        private static final class Entry<DATA> {
+            final DATA data;
+            final long writtenAt;
+            volatile long accessedAt;
+            volatile boolean expired;
+
+            Entry(DATA data, long now) {
+                this.data = data;
+                this.writtenAt = now;
+                this.accessedAt = now;
+            }
+        }
+
+        /**
+         * A load or refresh running for a key, the token a write of the key marks stale.
+         */
+        private static final class Load<DATA> {
+            private boolean done;
+            private DATA data;
+            private Throwable error;
+            // set by a write of the key, the loaded entity may be older than it
+            volatile boolean stale;
+
+            boolean isStale(AtomicLong cleared, long clear) {
+                return stale || cleared.get() != clear;
+            }
+
+            synchronized void complete(DATA data, Throwable error) {
+                this.data = data;
+                this.error = error;
+                this.done = true;
+                notifyAll();
+            }
+
+            synchronized DATA await() {
+                boolean interrupted = false;
+                while (!done) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+
+                if (error instanceof RuntimeException)
+                    throw (RuntimeException) error;
+                if (error instanceof Error)
+                    throw (Error) error;
+                return data;
+            }
+        }
+
+        static final class Warming<KEY, DATA> {
+            final Map<KEY, Load<DATA>> tokens = new HashMap<>();
+            final long clear;
+
+            Warming(long clear) {
+                this.clear = clear;
+            }
+        }
+
+        /**
+         * Sizes the cache of a {@link BaseDatabaseOperator}. Without a weigher the cache holds
+         * {@link #maximumSize} entities, with one it evicts by weight, see {@link #maximumWeight}
+         * and {@link #maximumHeapFraction}, an eighth of the heap by default.
+         */
+        public static final class Builder<KEY, DATA> {
+            private int maximumSize = 5 * 1024 * 1024;
+            private long maximumWeight = -1;
+            private double heapFraction = -1;
+            private Weigher<KEY, DATA> weigher;
+            private boolean readThrough;
+            private long negativeTtlMillis;
+            private int negativeCacheSize = 1024;
+            private int writeBehindBatchSize;
+            private long writeBehindDelayMillis;
+            private long expireAfterWriteMillis;
+            private long expireAfterAccessMillis;
+            private long refreshAfterWriteMillis;
+            private Executor refreshExecutor;
+            private File hotKeysFile;
+            private KeyCodec<KEY> hotKeyCodec;
+            private int hotKeyCount = 1000;
+            private long hotKeysSaveIntervalMillis;
+            private long warmUpBudgetMillis = 2000;
+
+            public Builder<KEY, DATA> maximumSize(int entries) {
+                if (entries <= 0)
+                    throw new IllegalArgumentException("maximumSize <= 0: " + entries);
+                this.maximumSize = entries;
+                return this;
+            }
+
+            /**
+             * An entity heavier than the whole budget is never cached and counts as evicted by
+             * {@link RemovalListener#CAUSE_SIZE}, see {@link MemoryCache}.
+             *
+             * @param weight budget in the unit of the weigher, usually bytes
+             */
+            public Builder<KEY, DATA> maximumWeight(long weight) {
+                if (weight <= 0)
+                    throw new IllegalArgumentException("maximumWeight <= 0: " + weight);
+                this.maximumWeight = weight;
+                this.heapFraction = -1;
+                return this;
+            }
+
+            /**
+             * @param fraction budget in bytes as a fraction of {@link Runtime#maxMemory()}, e.g. 0.125
+             */
+            public Builder<KEY, DATA> maximumHeapFraction(double fraction) {
+                if (fraction <= 0 || fraction > 1)
+                    throw new IllegalArgumentException("heap fraction out of (0, 1]: " + fraction);
+                this.heapFraction = fraction;
+                this.maximumWeight = -1;
+                return this;
+            }
+
+            public Builder<KEY, DATA> weigher(Weigher<KEY, DATA> weigher) {
+                this.weigher = weigher;
+                return this;
+            }
+
+            /**
+             * Load cache misses of {@link BaseDatabaseOperator#read(Object)} through
+             * {@link BaseDatabaseOperator#load}.
+             *
+             * @param negativeTtlMillis how long a key found absent is answered with null without
+             *                          loading it again, 0 to not remember absent keys
+             */
+            public Builder<KEY, DATA> readThrough(long negativeTtlMillis) {
+                if (negativeTtlMillis < 0)
+                    throw new IllegalArgumentException("negativeTtlMillis < 0: " + negativeTtlMillis);
+                this.readThrough = true;
+                this.negativeTtlMillis = negativeTtlMillis;
+                return this;
+            }
+
+            /**
+             * @param entries most absent keys remembered at once, 1024 by default
+             */
+            public Builder<KEY, DATA> negativeCacheSize(int entries) {
+                if (entries <= 0)
+                    throw new IllegalArgumentException("negativeCacheSize <= 0: " + entries);
+                this.negativeCacheSize = entries;
+                return this;
+            }
+
+            /**
+             * Saves go to the cache and are persisted later through {@link BaseDatabaseOperator#store},
+             * in batches of up to maxBatchSize, at most maxDelayMillis after they were made.
+             * Saving a key again before it is flushed writes it once. A failed flush is retried
+             * after a second at least, the delay doubling with every further failure.
+             */
+            public Builder<KEY, DATA> writeBehind(int maxBatchSize, long maxDelayMillis) {
+                if (maxBatchSize <= 0)
+                    throw new IllegalArgumentException("maxBatchSize <= 0: " + maxBatchSize);
+                if (maxDelayMillis < 0)
+                    throw new IllegalArgumentException("maxDelayMillis < 0: " + maxDelayMillis);
+                this.writeBehindBatchSize = maxBatchSize;
+                this.writeBehindDelayMillis = maxDelayMillis;
+                return this;
+            }
+
+            /**
+             * Entities saved or loaded longer ago are dropped when next read, 0 to keep them.
+             */
+            public Builder<KEY, DATA> expireAfterWrite(long millis) {
+                if (millis < 0)
+                    throw new IllegalArgumentException("expireAfterWrite < 0: " + millis);
+                this.expireAfterWriteMillis = millis;
+                return this;
+            }
+
+            /**
+             * Entities not read for longer are dropped when next read, 0 to keep them.
+             */
+            public Builder<KEY, DATA> expireAfterAccess(long millis) {
+                if (millis < 0)
+                    throw new IllegalArgumentException("expireAfterAccess < 0: " + millis);
+                this.expireAfterAccessMillis = millis;
+                return this;
+            }
+
+            /**
+             * Reading an entity saved or loaded longer ago reloads it through
+             * {@link BaseDatabaseOperator#load} in the background, the read itself still gets the
+             * cached one. Set below {@link #expireAfterWrite} so hot entities never expire.
+             */
+            public Builder<KEY, DATA> refreshAfterWrite(long millis) {
+                if (millis < 0)
+                    throw new IllegalArgumentException("refreshAfterWrite < 0: " + millis);
+                this.refreshAfterWriteMillis = millis;
+                return this;
+            }
+
+            /**
+             * Where refreshes run, by default the one background thread shared by all caches.
+             */
+            public Builder<KEY, DATA> refreshExecutor(Executor executor) {
+                this.refreshExecutor = executor;
+                return this;
+            }
+
+            /**
+             * Saves the most recently used keys to file on close, and every saveIntervalMillis
+             * if positive, for {@link Cache#warmUp()} after the next start.
+             */
+            public Builder<KEY, DATA> hotKeys(File file, KeyCodec<KEY> codec, long saveIntervalMillis) {
+                if (file == null || codec == null)
+                    throw new NullPointerException("file == null || codec == null");
+                this.hotKeysFile = file;
+                this.hotKeyCodec = codec;
+                this.hotKeysSaveIntervalMillis = saveIntervalMillis;
+                return this;
+            }
+
+            /**
+             * @param keys most keys saved, 1000 by default
+             */
+            public Builder<KEY, DATA> hotKeyCount(int keys) {
+                if (keys <= 0)
+                    throw new IllegalArgumentException("hotKeyCount <= 0: " + keys);
+                this.hotKeyCount = keys;
+                return this;
+            }
+
+            /**
+             * @param millis time after which the warm-up stops loading, 2s by default
+             */
+            public Builder<KEY, DATA> warmUpBudget(long millis) {
+                if (millis <= 0)
+                    throw new IllegalArgumentException("warmUpBudget <= 0: " + millis);
+                this.warmUpBudgetMillis = millis;
+                return this;
+            }
+
+            int maximumWeight() {
+                if (weigher == null) {
+                    if (maximumWeight > 0 || heapFraction > 0)
+                        throw new IllegalStateException("a weight budget needs a weigher");
+                    return maximumSize;
+                }
+
+                long weight;
+                if (maximumWeight > 0)
+                    weight = maximumWeight;
+                else if (heapFraction > 0)
+                    weight = (long) (Runtime.getRuntime().maxMemory() * heapFraction);
+                else
+                    weight = Runtime.getRuntime().maxMemory() / 8;
+                return (int) Math.max(1, Math.min(Integer.MAX_VALUE, weight));
             }
         }
     }
@@ -0,0 +1,74 @@
+package com.avit.safe.sqlite;
+
+/**
+ * Snapshot of the counters of a {@link BaseDatabaseOperator.Cache}, see
+ * {@link BaseDatabaseOperator.Cache#stats()}.
+ */
+public final class CacheStats {
+    public final long hitCount;
+    public final long missCount;
+    /**
+     * loads through {@link BaseDatabaseOperator#load}, including failed ones
+     */
+    public final long loadCount;
+    public final long loadFailureCount;
+    public final long totalLoadNanos;
+    /**
+     * removals indexed by the causes of {@link RemovalListener}
+     */
+    private final long[] removals;
+    public final int weight;
+    public final int maximumWeight;
+
+    CacheStats(long hitCount, long missCount, long loadCount, long loadFailureCount, long totalLoadNanos,
+               long[] removals, int weight, int maximumWeight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadNanos = totalLoadNanos;
+        this.removals = removals;
+        this.weight = weight;
+        this.maximumWeight = maximumWeight;
+    }
+
+    public double hitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public double averageLoadMillis() {
+        return loadCount == 0 ? 0 : totalLoadNanos / 1e6 / loadCount;
+    }
+
+    /**
+     * @param cause one of the causes of {@link RemovalListener}
+     */
+    public long removalCount(int cause) {
+        return removals[cause];
+    }
+
+    /**
+     * @return entities dropped by the cache itself, by size or expiry
+     */
+    public long evictionCount() {
+        return removals[RemovalListener.CAUSE_SIZE] + removals[RemovalListener.CAUSE_EXPIRED];
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", loadCount=" + loadCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", averageLoadMillis=" + averageLoadMillis() +
+                ", explicit=" + removals[RemovalListener.CAUSE_EXPLICIT] +
+                ", replaced=" + removals[RemovalListener.CAUSE_REPLACED] +
+                ", size=" + removals[RemovalListener.CAUSE_SIZE] +
+                ", expired=" + removals[RemovalListener.CAUSE_EXPIRED] +
+                ", weight=" + weight +
+                ", maximumWeight=" + maximumWeight +
+                '}';
+    }
+}
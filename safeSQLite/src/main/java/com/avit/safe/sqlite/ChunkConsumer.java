@@ -0,0 +1,15 @@
+package com.avit.safe.sqlite;
+
+import java.util.List;
+
+/**
+ * Receives the rows of {@link IStreamOperation#stream} a chunk at a time.
+ */
+public interface ChunkConsumer<DATA> {
+
+    /**
+     * @param chunk only valid during the call, the operator may reuse it for the next chunk
+     * @return false to stop streaming
+     */
+    boolean onChunk(List<DATA> chunk);
+}
@@ -0,0 +1,40 @@
+package com.avit.safe.sqlite;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming over operations that may not implement {@link IStreamOperation}.
+ */
+final class Chunks {
+
+    private Chunks() {
+    }
+
+    static <DATA> int stream(IDatabaseOperation<DATA> operation, Map<String, Object> objects, int chunkSize,
+                             ChunkConsumer<DATA> consumer) {
+        if (operation instanceof IStreamOperation)
+            return ((IStreamOperation<DATA>) operation).stream(objects, chunkSize, consumer);
+
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize <= 0: " + chunkSize);
+        return hand(objects == null ? operation.read() : operation.read(objects), chunkSize, consumer);
+    }
+
+    /**
+     * @return the number of rows handed to consumer
+     */
+    static <DATA> int hand(List<DATA> datas, int chunkSize, ChunkConsumer<DATA> consumer) {
+        if (datas == null)
+            return 0;
+
+        int count = 0;
+        while (count < datas.size()) {
+            List<DATA> chunk = datas.subList(count, Math.min(count + chunkSize, datas.size()));
+            count += chunk.size();
+            if (!consumer.onChunk(chunk))
+                break;
+        }
+        return count;
+    }
+}
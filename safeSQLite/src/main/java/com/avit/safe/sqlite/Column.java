@@ -0,0 +1,19 @@
+package com.avit.safe.sqlite;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A mapped field of a {@link Table} entity, accessed directly unless private, through its
+ * bean getter and setter otherwise.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Column {
+    /**
+     * column name, the field name if empty
+     */
+    String value() default "";
+}
@@ -0,0 +1,125 @@
+package com.avit.safe.sqlite;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A criteria value other than plain equality, e.g. {@code criteria.put("age", Condition.ge(18))}.
+ * <p>
+ * In a criteria map a plain value means equal to it, null means IS NULL and a collection means
+ * IN. All entries of a map must hold.
+ */
+public final class Condition {
+
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int LT = 2;
+    static final int LE = 3;
+    static final int GT = 4;
+    static final int GE = 5;
+    static final int BETWEEN = 6;
+    static final int IN = 7;
+    static final int IS_NULL = 8;
+    static final int NOT_NULL = 9;
+
+    private static final Condition IS_NULL_CONDITION = new Condition(IS_NULL, new Object[0]);
+    private static final Condition NOT_NULL_CONDITION = new Condition(NOT_NULL, new Object[0]);
+
+    public static Condition eq(Object value) {
+        return value == null ? IS_NULL_CONDITION : new Condition(EQ, value);
+    }
+
+    public static Condition ne(Object value) {
+        return value == null ? NOT_NULL_CONDITION : new Condition(NE, value);
+    }
+
+    public static Condition lt(Object value) {
+        return new Condition(LT, notNull(value));
+    }
+
+    public static Condition le(Object value) {
+        return new Condition(LE, notNull(value));
+    }
+
+    public static Condition gt(Object value) {
+        return new Condition(GT, notNull(value));
+    }
+
+    public static Condition ge(Object value) {
+        return new Condition(GE, notNull(value));
+    }
+
+    /**
+     * low &lt;= column &lt;= high
+     */
+    public static Condition between(Object low, Object high) {
+        return new Condition(BETWEEN, notNull(low), notNull(high));
+    }
+
+    public static Condition in(Collection<?> values) {
+        return in(values.toArray());
+    }
+
+    /**
+     * An empty list matches no row, nulls are not allowed, see {@link #isNull()}.
+     */
+    public static Condition in(Object... values) {
+        for (Object value : values) {
+            notNull(value);
+        }
+        return new Condition(IN, values.clone());
+    }
+
+    public static Condition isNull() {
+        return IS_NULL_CONDITION;
+    }
+
+    public static Condition notNull() {
+        return NOT_NULL_CONDITION;
+    }
+
+    private static Object notNull(Object value) {
+        if (value == null)
+            throw new IllegalArgumentException("null operand, use isNull() or notNull()");
+        return value;
+    }
+
+    /**
+     * @return the condition a criteria map value stands for
+     */
+    static Condition of(Object value) {
+        if (value instanceof Condition)
+            return (Condition) value;
+        if (value instanceof Collection)
+            return in((Collection<?>) value);
+        return eq(value);
+    }
+
+    final int operator;
+    final Object[] operands;
+
+    private Condition(int operator, Object... operands) {
+        this.operator = operator;
+        this.operands = operands;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Condition))
+            return false;
+        Condition condition = (Condition) o;
+        return operator == condition.operator && Arrays.equals(operands, condition.operands);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * operator + Arrays.hashCode(operands);
+    }
+
+    @Override
+    public String toString() {
+        return "Condition{" + operator + ", " + Arrays.toString(operands) + '}';
+    }
+}
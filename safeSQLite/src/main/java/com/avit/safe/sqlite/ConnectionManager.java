@@ -0,0 +1,435 @@
+package com.avit.safe.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens a database for the operators sharing it and configures it by {@link Profile}: WAL,
+ * busy timeout, synchronous level and how many threads read at once.
+ * <p>
+ * With WAL the automatic checkpoint, which runs inside whatever commit crosses its threshold,
+ * is raised, and checkpoints and incremental vacuum run instead while the registered
+ * {@link AsyncDatabaseOperator}s have nothing queued, on the writer thread of the first one.
+ * <p>
+ * The pragmas apply to the connection that runs them. Android opens reader connections of its
+ * own with its default busy timeout and synchronous level.
+ */
+public final class ConnectionManager {
+
+    private static final String TAG = "ConnectionManager";
+
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    // PRAGMA auto_vacuum
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    public static ConnectionManager open(String path, Profile profile) {
+        int flags = SQLiteDatabase.CREATE_IF_NECESSARY;
+        if (profile.wal)
+            flags |= SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+        return new ConnectionManager(SQLiteDatabase.openDatabase(path, null, flags), profile);
+    }
+
+    private final SQLiteDatabase db;
+    private final Profile profile;
+    private final boolean incrementalVacuum;
+    private final CopyOnWriteArrayList<AsyncDatabaseOperator<?>> operators = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean maintaining = new AtomicBoolean();
+    private final ScheduledFuture<?> idleCheck;
+    private volatile boolean closed;
+
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong checkpointedFrames = new AtomicLong();
+    private final AtomicLong vacuumedPages = new AtomicLong();
+    // wal_checkpoint answers since the WAL was last reset, guarded by this
+    private int lastLogFrames;
+    private int lastCheckpointedFrames;
+
+    /**
+     * @param db opened by the caller, with {@link SQLiteDatabase#ENABLE_WRITE_AHEAD_LOGGING} if
+     *           the profile wants WAL
+     */
+    public ConnectionManager(SQLiteDatabase db, Profile profile) {
+        this.db = db;
+        this.profile = profile.copy();
+
+        db.setMaxSqlCacheSize(this.profile.statementCacheSize);
+        pragma("PRAGMA busy_timeout = " + this.profile.busyTimeoutMillis);
+        pragma("PRAGMA synchronous = " + this.profile.synchronous);
+        if (this.profile.wal)
+            pragma("PRAGMA wal_autocheckpoint = " + this.profile.autoCheckpointPages);
+        this.incrementalVacuum = this.profile.vacuumPages > 0 && enableIncrementalVacuum();
+
+        if (this.profile.idleCheckMillis > 0 && (this.profile.wal || incrementalVacuum)) {
+            this.idleCheck = Background.executor().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    maintainIfIdle();
+                }
+            }, this.profile.idleCheckMillis, this.profile.idleCheckMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.idleCheck = null;
+        }
+    }
+
+    public SQLiteDatabase getDatabase() {
+        return db;
+    }
+
+    public Profile getProfile() {
+        return profile.copy();
+    }
+
+    /**
+     * Wraps operation with reads on {@link Profile#readers} threads when WAL allows them, and
+     * registers it, see {@link #register}.
+     */
+    public <DATA> AsyncDatabaseOperator<DATA> async(IDatabaseOperation<DATA> operation) {
+        AsyncDatabaseOperator<DATA> async = AsyncDatabaseOperator.async(operation);
+        if (profile.wal && profile.readers > 1)
+            async.enableConcurrentReads(profile.readers);
+        register(async);
+        return async;
+    }
+
+    /**
+     * Maintenance waits until no registered operator has calls queued.
+     */
+    public void register(AsyncDatabaseOperator<?> operator) {
+        operators.addIfAbsent(operator);
+    }
+
+    public void unregister(AsyncDatabaseOperator<?> operator) {
+        operators.remove(operator);
+    }
+
+    private void maintainIfIdle() {
+        if (closed)
+            return;
+
+        AsyncDatabaseOperator<?> executor = null;
+        for (AsyncDatabaseOperator<?> operator : operators) {
+            if (operator.getQueueDepth() > 0)
+                return;
+            if (executor == null)
+                executor = operator;
+        }
+
+        if (!maintaining.compareAndSet(false, true))
+            return;
+
+        Runnable maintenance = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintain();
+                } finally {
+                    maintaining.set(false);
+                }
+            }
+        };
+        if (executor == null)
+            maintenance.run();
+        else if (!executor.executeWhenIdle(maintenance))
+            maintaining.set(false);
+    }
+
+    private void maintain() {
+        if (closed)
+            return;
+
+        long b = System.nanoTime();
+        try {
+            int frames = profile.wal ? checkpoint() : 0;
+            int pages = incrementalVacuum ? vacuum(profile.vacuumPages) : 0;
+            if (frames > 0 || pages > 0)
+                Log.d(TAG, "maintain: " + frames + " frames checkpointed, " + pages + " pages vacuumed, "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - b) + "ms");
+        } catch (Throwable e) {
+            // locked or closed meanwhile, the next idle check tries again
+            Log.w(TAG, "maintain: ", e);
+        }
+    }
+
+    /**
+     * Copies what the WAL holds into the database without waiting for readers or writers.
+     *
+     * @return the frames checkpointed since the last call, by it or by automatic checkpoints
+     */
+    public synchronized int checkpoint() {
+        int log;
+        int checkpointed;
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            // busy, log frames, checkpointed frames, the frames count since the WAL was reset
+            if (!cursor.moveToNext())
+                return 0;
+            log = cursor.getInt(1);
+            checkpointed = cursor.getInt(2);
+        } finally {
+            cursor.close();
+        }
+        checkpoints.incrementAndGet();
+        if (log < 0 || checkpointed < 0)
+            return 0;
+
+        int frames;
+        if (log == lastLogFrames && checkpointed == lastCheckpointedFrames)
+            frames = 0;
+        else if (lastLogFrames == lastCheckpointedFrames || log < lastLogFrames || checkpointed < lastCheckpointedFrames)
+            // all was checkpointed, so the next write reset the WAL, or it shrank
+            frames = checkpointed;
+        else
+            frames = checkpointed - lastCheckpointedFrames;
+        lastLogFrames = log;
+        lastCheckpointedFrames = checkpointed;
+        if (frames > 0)
+            checkpointedFrames.addAndGet(frames);
+        return frames;
+    }
+
+    /**
+     * Returns up to maxPages free pages to the file system, only with incremental auto vacuum.
+     *
+     * @return the pages freed
+     */
+    public int vacuum(int maxPages) {
+        if (!incrementalVacuum)
+            return 0;
+
+        int free = (int) pragmaLong("PRAGMA freelist_count");
+        if (free <= 0)
+            return 0;
+
+        int pages = Math.min(free, maxPages);
+        pragma("PRAGMA incremental_vacuum(" + pages + ")");
+        vacuumedPages.addAndGet(pages);
+        return pages;
+    }
+
+    /**
+     * auto_vacuum only takes effect on a database without tables, later it takes a VACUUM. Android
+     * creates android_metadata on open, so a database with no other tables is vacuumed right away,
+     * which costs next to nothing.
+     */
+    private boolean enableIncrementalVacuum() {
+        if (pragmaLong("PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL)
+            return true;
+        if (pragmaLong("SELECT COUNT(*) FROM sqlite_master WHERE name <> 'android_metadata'"
+                + " AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\'") > 0) {
+            Log.w(TAG, "enableIncrementalVacuum: database has tables, incremental vacuum needs a VACUUM first");
+            return false;
+        }
+        pragma("PRAGMA auto_vacuum = INCREMENTAL");
+        if (pragmaLong("PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL)
+            db.execSQL("VACUUM");
+        if (pragmaLong("PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            Log.w(TAG, "enableIncrementalVacuum: auto_vacuum did not switch");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Some pragmas answer with a row, execSQL would refuse them, so all go through a query.
+     */
+    private void pragma(String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToNext();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long pragmaLong(String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToNext() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public long getCheckpointCount() {
+        return checkpoints.get();
+    }
+
+    public long getCheckpointedFrames() {
+        return checkpointedFrames.get();
+    }
+
+    public long getVacuumedPages() {
+        return vacuumedPages.get();
+    }
+
+    /**
+     * Stops the idle maintenance, checkpoints a last time and closes the database. The operators
+     * must be done with it, flush write-behind caches before.
+     */
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+
+        if (idleCheck != null)
+            idleCheck.cancel(false);
+        operators.clear();
+
+        try {
+            if (profile.wal)
+                checkpoint();
+        } catch (Throwable e) {
+            Log.w(TAG, "close: ", e);
+        }
+        db.close();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionManager{" + profile + ", checkpoints=" + checkpoints + ", frames=" + checkpointedFrames
+                + ", vacuumed=" + vacuumedPages + '}';
+    }
+
+    /**
+     * How a database is opened and maintained, e.g. {@code Profile.interactive().readers(2)}.
+     */
+    public static final class Profile {
+        private boolean wal = true;
+        private int readers = 4;
+        private int busyTimeoutMillis = 3000;
+        private int synchronous = SYNCHRONOUS_NORMAL;
+        private int autoCheckpointPages = 4000;
+        private long idleCheckMillis = 30000;
+        private int vacuumPages;
+        private int statementCacheSize = 50;
+
+        /**
+         * WAL with 4 readers, NORMAL synchronous, a commit may be lost on power failure but the
+         * database is never corrupted.
+         */
+        public static Profile interactive() {
+            return new Profile();
+        }
+
+        /**
+         * WAL with 2 readers, FULL synchronous, every commit survives power failure.
+         */
+        public static Profile durable() {
+            return new Profile().readers(2).synchronous(SYNCHRONOUS_FULL).busyTimeout(5000);
+        }
+
+        /**
+         * Rollback journal, one reader, for a database shared with processes not using WAL.
+         */
+        public static Profile compatible() {
+            return new Profile().wal(false).readers(1).synchronous(SYNCHRONOUS_FULL);
+        }
+
+        public Profile wal(boolean wal) {
+            this.wal = wal;
+            return this;
+        }
+
+        /**
+         * @param readers threads of {@link AsyncDatabaseOperator#enableConcurrentReads} with WAL
+         */
+        public Profile readers(int readers) {
+            if (readers < 1)
+                throw new IllegalArgumentException("readers < 1: " + readers);
+            this.readers = readers;
+            return this;
+        }
+
+        /**
+         * @param millis how long SQLite retries a locked database before it fails
+         */
+        public Profile busyTimeout(int millis) {
+            if (millis < 0)
+                throw new IllegalArgumentException("busyTimeout < 0: " + millis);
+            this.busyTimeoutMillis = millis;
+            return this;
+        }
+
+        /**
+         * @param level one of {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL}, {@link #SYNCHRONOUS_FULL}
+         */
+        public Profile synchronous(int level) {
+            if (level < SYNCHRONOUS_OFF || level > SYNCHRONOUS_FULL)
+                throw new IllegalArgumentException("unknown synchronous level: " + level);
+            this.synchronous = level;
+            return this;
+        }
+
+        /**
+         * @param pages WAL size at which a commit checkpoints by itself, a safety net for when the
+         *              queues are never idle, 0 to leave checkpoints to the idle maintenance
+         */
+        public Profile autoCheckpoint(int pages) {
+            if (pages < 0)
+                throw new IllegalArgumentException("autoCheckpoint < 0: " + pages);
+            this.autoCheckpointPages = pages;
+            return this;
+        }
+
+        /**
+         * @param millis how often the queues are checked for idleness, 0 for no idle maintenance
+         */
+        public Profile idleCheck(long millis) {
+            if (millis < 0)
+                throw new IllegalArgumentException("idleCheck < 0: " + millis);
+            this.idleCheckMillis = millis;
+            return this;
+        }
+
+        /**
+         * Switches a new database to incremental auto vacuum, free pages are then returned while
+         * idle, up to pages at a time.
+         */
+        public Profile incrementalVacuum(int pages) {
+            if (pages < 0)
+                throw new IllegalArgumentException("incrementalVacuum < 0: " + pages);
+            this.vacuumPages = pages;
+            return this;
+        }
+
+        /**
+         * @param size prepared statements kept per connection, at most 100
+         */
+        public Profile statementCacheSize(int size) {
+            if (size < 0 || size > 100)
+                throw new IllegalArgumentException("statementCacheSize out of [0, 100]: " + size);
+            this.statementCacheSize = size;
+            return this;
+        }
+
+        Profile copy() {
+            Profile copy = new Profile();
+            copy.wal = wal;
+            copy.readers = readers;
+            copy.busyTimeoutMillis = busyTimeoutMillis;
+            copy.synchronous = synchronous;
+            copy.autoCheckpointPages = autoCheckpointPages;
+            copy.idleCheckMillis = idleCheckMillis;
+            copy.vacuumPages = vacuumPages;
+            copy.statementCacheSize = statementCacheSize;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return "Profile{wal=" + wal + ", readers=" + readers + ", busyTimeout=" + busyTimeoutMillis
+                    + ", synchronous=" + synchronous + ", autoCheckpoint=" + autoCheckpointPages
+                    + ", idleCheck=" + idleCheckMillis + ", vacuum=" + vacuumPages + '}';
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.avit.safe.sqlite;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers count() and registered count(Map) filters from counters kept up to date by the writes
+ * going through this operator, instead of counting rows on every call.
+ * <p>
+ * A counter is seeded by one real count and resynced after the resync interval, after writes it
+ * cannot follow and after writes that raced with a resync. The total follows deletes by the rows
+ * they report, saves are not followed: saveOrUpdate does not tell an insert from an update, and
+ * with a write-behind cache the row is not even there yet, so a save only marks the counters
+ * stale and the next count counts again, once for any number of saves before it. Filters are
+ * marked stale by deletes too, the entities passed to delete may hold no more than their key.
+ * Writes that bypass this operator are only picked up by the next resync.
+ */
+public final class CountingOperator<DATA> implements IStreamOperation<DATA>, IPageOperation<DATA> {
+
+    /**
+     * @param resyncMillis longest time a counter is trusted without counting again, 0 for ever
+     */
+    public static <DATA> CountingOperator<DATA> counting(IDatabaseOperation<DATA> operation, long resyncMillis) {
+        return new CountingOperator<>(operation, resyncMillis);
+    }
+
+    private final IDatabaseOperation<DATA> operation;
+    private final String TAG;
+    private final long resyncMillis;
+
+    private final Counter total = new Counter(null);
+    private final ConcurrentHashMap<Map<String, Object>, Counter> filters = new ConcurrentHashMap<>();
+
+    private CountingOperator(IDatabaseOperation<DATA> operation, long resyncMillis) {
+        if (resyncMillis < 0)
+            throw new IllegalArgumentException("resyncMillis < 0: " + resyncMillis);
+
+        this.operation = operation;
+        this.TAG = operation.getLogTag();
+        this.resyncMillis = resyncMillis;
+    }
+
+    /**
+     * Answer count(criteria) from a counter as well, counted again after every write.
+     */
+    public void registerCount(Map<String, Object> criteria) {
+        TreeMap<String, Object> key = new TreeMap<>(criteria);
+        filters.put(key, new Counter(key));
+    }
+
+    public void unregisterCount(Map<String, Object> criteria) {
+        filters.remove(new TreeMap<>(criteria));
+    }
+
+    /**
+     * Count again on the next call.
+     */
+    public void resync() {
+        total.invalidate();
+        invalidateFilters();
+    }
+
+    @Override
+    public String getLogTag() {
+        return operation.getLogTag();
+    }
+
+    /**
+     * -------save-------------
+     */
+    @Override
+    public int saveOrUpdate(DATA data) {
+        try {
+            return operation.saveOrUpdate(data);
+        } finally {
+            resync();
+        }
+    }
+
+    @Override
+    public int saveOrUpdate(List<DATA> datas) {
+        try {
+            return operation.saveOrUpdate(datas);
+        } finally {
+            resync();
+        }
+    }
+
+    /**
+     * -------read-------------
+     */
+    @Override
+    public DATA read(DATA data) {
+        return operation.read(data);
+    }
+
+    @Override
+    public List<DATA> read(Map<String, Object> objects) {
+        return operation.read(objects);
+    }
+
+    @Override
+    public List<DATA> read(int pageSize, int offset, Map<String, Object> object) {
+        return operation.read(pageSize, offset, object);
+    }
+
+    @Override
+    public List<DATA> read() {
+        return operation.read();
+    }
+
+    @Override
+    public Page<DATA> readPage(int pageSize, String token, Map<String, Object> objects) {
+        return Page.read(operation, pageSize, token, objects);
+    }
+
+    @Override
+    public int stream(Map<String, Object> objects, int chunkSize, ChunkConsumer<DATA> consumer) {
+        return Chunks.stream(operation, objects, chunkSize, consumer);
+    }
+
+    /**
+     * -------delete-------------
+     */
+    @Override
+    public int delete(DATA data) {
+        int ret = operation.delete(data);
+        if (ret > 0) {
+            total.add(-ret);
+            invalidateFilters();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(Map<String, Object> objects) {
+        int ret = operation.delete(objects);
+        if (ret > 0) {
+            total.add(-ret);
+            invalidateFilters();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(List<DATA> datas) {
+        int ret = operation.delete(datas);
+        if (ret > 0) {
+            total.add(-ret);
+            invalidateFilters();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete() {
+        try {
+            return operation.delete();
+        } finally {
+            resync();
+        }
+    }
+
+    private void invalidateFilters() {
+        for (Counter counter : filters.values()) {
+            counter.invalidate();
+        }
+    }
+
+    /**
+     * --------count--------------
+     */
+    @Override
+    public int count() {
+        return get(total);
+    }
+
+    @Override
+    public int count(DATA data) {
+        return operation.count(data);
+    }
+
+    @Override
+    public int count(Map<String, Object> objects) {
+        Counter counter = objects == null ? null : filters.get(new TreeMap<>(objects));
+        if (counter == null)
+            return operation.count(objects);
+        return get(counter);
+    }
+
+    private int get(Counter counter) {
+        if (counter.valid && (resyncMillis == 0 || SystemClock.elapsedRealtime() - counter.syncedAt < resyncMillis))
+            return counter.value.get();
+
+        long gen = counter.generation.get();
+        int value = counter.criteria == null ? operation.count() : operation.count(counter.criteria);
+        counter.value.set(value);
+        counter.syncedAt = SystemClock.elapsedRealtime();
+        // a write that landed while counting may or may not be included, count again next time
+        counter.valid = counter.generation.get() == gen;
+        Log.d(TAG, "count: synced " + (counter.criteria == null ? "all" : counter.criteria) + " = " + value);
+        return value;
+    }
+
+    private static final class Counter {
+        final Map<String, Object> criteria;
+        final AtomicInteger value = new AtomicInteger();
+        final AtomicLong generation = new AtomicLong();
+        volatile boolean valid;
+        volatile long syncedAt;
+
+        Counter(Map<String, Object> criteria) {
+            this.criteria = criteria;
+        }
+
+        void add(int delta) {
+            generation.incrementAndGet();
+            value.addAndGet(delta);
+        }
+
+        void invalidate() {
+            generation.incrementAndGet();
+            valid = false;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.avit.safe.sqlite;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns criteria maps into WHERE clauses with parameters.
+ * <p>
+ * A map is normalized into its shape, the sorted columns with their operators and the number
+ * of IN parameters, the values do not matter. The clause of a shape is generated once and then
+ * reused, so two maps of the same shape produce the same SQL and only bind other values. IN
+ * lists are padded to a power of two by repeating their last value, so lists of many lengths
+ * share a few shapes, but never past {@link #MAX_VARIABLES} parameters in all. A map needing
+ * more than that is split into several filters by its longest IN list, each of them for a
+ * statement of its own.
+ */
+final class CriteriaCompiler {
+
+    private static final String TAG = "CriteriaCompiler";
+
+    /**
+     * most shapes remembered before the clauses of all of them are generated again
+     */
+    static final int MAX_SHAPES = 256;
+
+    /**
+     * most parameters of a statement, SQLITE_MAX_VARIABLE_NUMBER before SQLite 3.32
+     */
+    static final int MAX_VARIABLES = 999;
+
+    private final String table;
+    private final Set<String> columns;
+    private final ConcurrentHashMap<Shape, String> clauses = new ConcurrentHashMap<>();
+
+    CriteriaCompiler(String table, Set<String> columns) {
+        this.table = table;
+        this.columns = columns;
+    }
+
+    /**
+     * @throws IllegalArgumentException for a column not in the table, or if the criteria need
+     *                                  more than {@link #MAX_VARIABLES} parameters
+     */
+    Filter compile(Map<String, Object> criteria) {
+        List<Filter> filters = compile(criteria, 0);
+        if (filters.size() > 1)
+            throw new IllegalArgumentException("more than " + MAX_VARIABLES + " parameters: " + criteria.keySet());
+        return filters.get(0);
+    }
+
+    /**
+     * @param reserved parameters the statement needs besides the criteria, e.g. for LIMIT
+     * @return one filter, or several matching disjoint rows when one statement can not bind them all
+     * @throws IllegalArgumentException for a column not in the table
+     */
+    List<Filter> compile(Map<String, Object> criteria, int reserved) {
+        if (criteria == null || criteria.isEmpty())
+            return Collections.singletonList(Filter.NONE);
+
+        TreeMap<String, Object> sorted = new TreeMap<>(criteria);
+        String[] names = new String[sorted.size()];
+        int[] operators = new int[names.length];
+        Object[][] operands = new Object[names.length][];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+            if (!columns.contains(entry.getKey()))
+                throw new IllegalArgumentException("unknown column " + entry.getKey() + " of " + table);
+
+            Condition condition = Condition.of(entry.getValue());
+            names[i] = entry.getKey();
+            operators[i] = condition.operator;
+            operands[i] = condition.operands;
+            i++;
+        }
+
+        List<Filter> filters = new ArrayList<>(1);
+        split(names, operators, operands, MAX_VARIABLES - reserved, filters);
+        return filters;
+    }
+
+    /**
+     * Splits the longest IN list into parts of a power of two until the rest fits into limit.
+     */
+    private static void split(String[] names, int[] operators, Object[][] operands, int limit, List<Filter> out) {
+        int exact = 0;
+        int longest = -1;
+        for (int c = 0; c < names.length; c++) {
+            exact += operands[c].length;
+            if (operators[c] == Condition.IN && (longest < 0 || operands[c].length > operands[longest].length))
+                longest = c;
+        }
+        if (exact <= limit || longest < 0 || operands[longest].length <= 1) {
+            if (exact > limit)
+                throw new IllegalArgumentException("more than " + limit + " parameters: " + Arrays.toString(names));
+            out.add(filter(names, operators, operands, limit));
+            return;
+        }
+
+        // distinct, so the parts match disjoint rows
+        Object[] values = new LinkedHashSet<>(Arrays.asList(operands[longest])).toArray();
+        int room = limit - (exact - operands[longest].length);
+        int part = room < 1 ? 1 : Integer.highestOneBit(room);
+        for (int from = 0; from < values.length; from += part) {
+            Object[][] parted = operands.clone();
+            parted[longest] = Arrays.copyOfRange(values, from, Math.min(values.length, from + part));
+            split(names, operators, parted, limit, out);
+        }
+    }
+
+    private static Filter filter(String[] names, int[] operators, Object[][] operands, int limit) {
+        int[] arities = new int[names.length];
+        int bound = 0;
+        for (int c = 0; c < names.length; c++) {
+            arities[c] = operators[c] == Condition.IN ? padded(operands[c].length) : operands[c].length;
+            bound += arities[c];
+        }
+        // give back padding until the statement fits
+        for (int c = names.length - 1; bound > limit && c >= 0; c--) {
+            int excess = Math.min(bound - limit, arities[c] - operands[c].length);
+            arities[c] -= excess;
+            bound -= excess;
+        }
+
+        Object[] values = new Object[bound];
+        int v = 0;
+        for (int c = 0; c < names.length; c++) {
+            for (int a = 0; a < arities[c]; a++) {
+                values[v++] = operands[c][Math.min(a, operands[c].length - 1)];
+            }
+        }
+        return new Filter(new Shape(names, operators, arities), values);
+    }
+
+    /**
+     * @return the clause of shape, starting with " WHERE " unless it is empty
+     */
+    String where(Shape shape) {
+        String clause = clauses.get(shape);
+        if (clause != null)
+            return clause;
+
+        clause = generate(shape);
+        if (clauses.size() >= MAX_SHAPES) {
+            Log.w(TAG, "where: more than " + MAX_SHAPES + " shapes of " + table + ", starting over");
+            clauses.clear();
+        }
+        clauses.put(shape, clause);
+        return clause;
+    }
+
+    int size() {
+        return clauses.size();
+    }
+
+    private static int padded(int count) {
+        if (count <= 1)
+            return count;
+        return Integer.highestOneBit(count - 1) << 1;
+    }
+
+    private static String generate(Shape shape) {
+        StringBuilder sql = new StringBuilder();
+        String and = " WHERE ";
+        for (int c = 0; c < shape.columns.length; c++) {
+            sql.append(and);
+            and = " AND ";
+
+            String column = shape.columns[c];
+            switch (shape.operators[c]) {
+                case Condition.EQ:
+                    sql.append(column).append(" = ?");
+                    break;
+                case Condition.NE:
+                    sql.append(column).append(" <> ?");
+                    break;
+                case Condition.LT:
+                    sql.append(column).append(" < ?");
+                    break;
+                case Condition.LE:
+                    sql.append(column).append(" <= ?");
+                    break;
+                case Condition.GT:
+                    sql.append(column).append(" > ?");
+                    break;
+                case Condition.GE:
+                    sql.append(column).append(" >= ?");
+                    break;
+                case Condition.BETWEEN:
+                    sql.append(column).append(" BETWEEN ? AND ?");
+                    break;
+                case Condition.IN:
+                    if (shape.arities[c] == 0) {
+                        sql.append("0");
+                        break;
+                    }
+                    sql.append(column).append(" IN (?");
+                    for (int a = 1; a < shape.arities[c]; a++) {
+                        sql.append(", ?");
+                    }
+                    sql.append(')');
+                    break;
+                case Condition.IS_NULL:
+                    sql.append(column).append(" IS NULL");
+                    break;
+                case Condition.NOT_NULL:
+                    sql.append(column).append(" IS NOT NULL");
+                    break;
+                default:
+                    throw new IllegalStateException("operator " + shape.operators[c]);
+            }
+        }
+        return sql.toString();
+    }
+
+    /**
+     * A compiled criteria map, the values in the order of the clause parameters.
+     */
+    static final class Filter {
+        static final Filter NONE = new Filter(Shape.EMPTY, new Object[0]);
+
+        final Shape shape;
+        final Object[] values;
+
+        Filter(Shape shape, Object[] values) {
+            this.shape = shape;
+            this.values = values;
+        }
+    }
+
+    /**
+     * What the clause of a criteria map depends on.
+     */
+    static final class Shape {
+        static final Shape EMPTY = new Shape(new String[0], new int[0], new int[0]);
+
+        final String[] columns;
+        final int[] operators;
+        final int[] arities;
+        private final int hash;
+
+        Shape(String[] columns, int[] operators, int[] arities) {
+            this.columns = columns;
+            this.operators = operators;
+            this.arities = arities;
+            this.hash = 31 * (31 * Arrays.hashCode(columns) + Arrays.hashCode(operators)) + Arrays.hashCode(arities);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Shape))
+                return false;
+            Shape shape = (Shape) o;
+            return hash == shape.hash
+                    && Arrays.equals(columns, shape.columns)
+                    && Arrays.equals(operators, shape.operators)
+                    && Arrays.equals(arities, shape.arities);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.avit.safe.sqlite;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per operation counters and latency histograms fed by {@link SafeDatabaseOperator}.
+ * <p>
+ * Recording is lock free and does not allocate, one registry instance is shared by every
+ * operator with the same log tag.
+ */
+public final class DatabaseMetrics {
+
+    private static final String TAG = "DatabaseMetrics";
+
+    public static final int SAVE = 0;
+    public static final int READ = 1;
+    public static final int DELETE = 2;
+    public static final int COUNT = 3;
+
+    static final int TYPES = 4;
+
+    private static final String[] NAMES = {"save", "read", "delete", "count"};
+
+    private static final int CALLS = 0;
+    private static final int FAILURES = 1;
+    private static final int LOCKED = 2;
+    private static final int RETRIES = 3;
+    private static final int LATENCY_SUM = 4;
+    private static final int LOCK_WAIT_SUM = 5;
+    private static final int COUNTERS = 6;
+
+    /**
+     * bucket i holds samples in [2^(i-1), 2^i) microseconds, the last one is open ended
+     */
+    static final int BUCKETS = 32;
+
+    private static final ConcurrentHashMap<String, DatabaseMetrics> registry = new ConcurrentHashMap<>();
+
+    public static DatabaseMetrics forTag(String tag) {
+        DatabaseMetrics metrics = registry.get(tag);
+        if (metrics == null) {
+            DatabaseMetrics created = new DatabaseMetrics(tag);
+            metrics = registry.putIfAbsent(tag, created);
+            if (metrics == null)
+                metrics = created;
+        }
+        return metrics;
+    }
+
+    public static List<Snapshot> snapshotAll() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (DatabaseMetrics metrics : registry.values()) {
+            snapshots.add(metrics.snapshot());
+        }
+        return snapshots;
+    }
+
+    public static String nameOf(int type) {
+        return NAMES[type];
+    }
+
+    static int typeOf(String operation) {
+        for (int i = 0; i < TYPES; i++) {
+            if (operation.startsWith(NAMES[i]))
+                return i;
+        }
+        return READ;
+    }
+
+    private final String tag;
+    private final AtomicLongArray counters = new AtomicLongArray(TYPES * COUNTERS);
+    private final AtomicLongArray latency = new AtomicLongArray(TYPES * BUCKETS);
+    private final AtomicLongArray lockWait = new AtomicLongArray(TYPES * BUCKETS);
+
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+    private volatile Listener[] listeners = NO_LISTENERS;
+
+    private DatabaseMetrics(String tag) {
+        this.tag = tag;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] ls = Arrays.copyOf(listeners, listeners.length + 1);
+        ls[ls.length - 1] = listener;
+        listeners = ls;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        List<Listener> ls = new ArrayList<>(Arrays.asList(listeners));
+        ls.remove(listener);
+        listeners = ls.toArray(NO_LISTENERS);
+    }
+
+    /**
+     * Latency is the execution of the last attempt only, the time before it is lock wait, so
+     * the two histograms do not overlap. Listeners that throw are logged and skipped, the
+     * operation they watch is done by then.
+     *
+     * @param begin   {@link System#nanoTime()} before the first attempt
+     * @param attempt {@link System#nanoTime()} before the last attempt, the gap to begin is time lost to locks
+     * @param retries how many attempts hit a locked database
+     */
+    void record(int type, long begin, long attempt, int retries, boolean failed) {
+        long now = System.nanoTime();
+        long latencyNanos = now - attempt;
+        long lockWaitNanos = attempt - begin;
+
+        int c = type * COUNTERS;
+        counters.incrementAndGet(c + CALLS);
+        if (failed)
+            counters.incrementAndGet(c + FAILURES);
+        if (retries > 0) {
+            counters.incrementAndGet(c + LOCKED);
+            counters.addAndGet(c + RETRIES, retries);
+            lockWait.incrementAndGet(type * BUCKETS + bucketOf(lockWaitNanos));
+        }
+        counters.addAndGet(c + LATENCY_SUM, latencyNanos);
+        counters.addAndGet(c + LOCK_WAIT_SUM, lockWaitNanos);
+        latency.incrementAndGet(type * BUCKETS + bucketOf(latencyNanos));
+
+        Listener[] ls = listeners;
+        for (Listener l : ls) {
+            try {
+                l.onRecord(this, type, latencyNanos, lockWaitNanos, retries, failed);
+            } catch (Throwable e) {
+                Log.e(TAG, "record: listener of " + tag + " threw", e);
+            }
+        }
+    }
+
+    static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    /**
+     * @return upper bound of the bucket in microseconds
+     */
+    static long bucketBound(int bucket) {
+        return 1L << bucket;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++)
+            counters.set(i, 0);
+        for (int i = 0; i < latency.length(); i++) {
+            latency.set(i, 0);
+            lockWait.set(i, 0);
+        }
+    }
+
+    public Snapshot snapshot() {
+        OperationStats[] stats = new OperationStats[TYPES];
+        for (int type = 0; type < TYPES; type++) {
+            int c = type * COUNTERS;
+            long[] lat = new long[BUCKETS];
+            long[] wait = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                lat[i] = latency.get(type * BUCKETS + i);
+                wait[i] = lockWait.get(type * BUCKETS + i);
+            }
+            stats[type] = new OperationStats(type,
+                    counters.get(c + CALLS),
+                    counters.get(c + FAILURES),
+                    counters.get(c + LOCKED),
+                    counters.get(c + RETRIES),
+                    counters.get(c + LATENCY_SUM),
+                    counters.get(c + LOCK_WAIT_SUM),
+                    lat, wait);
+        }
+        return new Snapshot(tag, stats);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the database thread after every operation, keep it cheap.
+         */
+        void onRecord(DatabaseMetrics metrics, int type, long latencyNanos, long lockWaitNanos, int retries, boolean failed);
+    }
+
+    public static final class Snapshot {
+        public final String tag;
+        private final OperationStats[] stats;
+
+        Snapshot(String tag, OperationStats[] stats) {
+            this.tag = tag;
+            this.stats = stats;
+        }
+
+        public OperationStats get(int type) {
+            return stats[type];
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" + tag + ", " + Arrays.toString(stats) + '}';
+        }
+    }
+
+    public static final class OperationStats {
+        public final int type;
+        public final long calls;
+        public final long failures;
+        /**
+         * calls that found the database locked at least once
+         */
+        public final long locked;
+        public final long retries;
+        public final long latencySumNanos;
+        public final long lockWaitSumNanos;
+        private final long[] latencyBuckets;
+        private final long[] lockWaitBuckets;
+
+        OperationStats(int type, long calls, long failures, long locked, long retries,
+                       long latencySumNanos, long lockWaitSumNanos,
+                       long[] latencyBuckets, long[] lockWaitBuckets) {
+            this.type = type;
+            this.calls = calls;
+            this.failures = failures;
+            this.locked = locked;
+            this.retries = retries;
+            this.latencySumNanos = latencySumNanos;
+            this.lockWaitSumNanos = lockWaitSumNanos;
+            this.latencyBuckets = latencyBuckets;
+            this.lockWaitBuckets = lockWaitBuckets;
+        }
+
+        /**
+         * Execution latency, without the time spent waiting for a locked database.
+         *
+         * @param p percentile in (0, 100]
+         * @return upper bound in microseconds of the bucket holding the percentile, 0 without samples
+         */
+        public long latencyPercentileMicros(double p) {
+            return percentile(latencyBuckets, p);
+        }
+
+        /**
+         * Over the calls that found the database locked only.
+         */
+        public long lockWaitPercentileMicros(double p) {
+            return percentile(lockWaitBuckets, p);
+        }
+
+        public long p50Micros() {
+            return latencyPercentileMicros(50);
+        }
+
+        public long p99Micros() {
+            return latencyPercentileMicros(99);
+        }
+
+        private static long percentile(long[] buckets, double p) {
+            long total = 0;
+            for (long b : buckets)
+                total += b;
+            if (total == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(total * p / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return bucketBound(i);
+            }
+            return bucketBound(buckets.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return nameOf(type) + "{" +
+                    "calls=" + calls +
+                    ", failures=" + failures +
+                    ", locked=" + locked +
+                    ", retries=" + retries +
+                    ", p50=" + p50Micros() + "us" +
+                    ", p99=" + p99Micros() + "us" +
+                    ", lockWaitP99=" + lockWaitPercentileMicros(99) + "us" +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.avit.safe.sqlite;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the most recently used keys of a {@link BaseDatabaseOperator.Cache} in a file, and loads
+ * their entities back after a restart, one batch per task on the {@link Background} thread until
+ * the warm-up budget is spent.
+ * <p>
+ * File: magic, version, key count, then the keys as written by the {@link KeyCodec}, hottest first.
+ */
+final class HotKeys<KEY, DATA> {
+
+    private static final String TAG = "HotKeys";
+
+    private static final int MAGIC = 0x484b4559;
+    private static final int VERSION = 1;
+    private static final int BATCH_SIZE = 64;
+
+    private final BaseDatabaseOperator.Cache<KEY, DATA> cache;
+    private final BaseDatabaseOperator<KEY, DATA> operator;
+    private final File file;
+    private final KeyCodec<KEY> codec;
+    private final int maxKeys;
+    private final long budgetNanos;
+
+    private final ScheduledFuture<?> periodic;
+
+    HotKeys(BaseDatabaseOperator.Cache<KEY, DATA> cache, BaseDatabaseOperator<KEY, DATA> operator, File file,
+            KeyCodec<KEY> codec, int maxKeys, long saveIntervalMillis, long budgetMillis) {
+        this.cache = cache;
+        this.operator = operator;
+        this.file = file;
+        this.codec = codec;
+        this.maxKeys = maxKeys;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+
+        if (saveIntervalMillis > 0) {
+            periodic = Background.executor().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            }, saveIntervalMillis, saveIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            periodic = null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first, a crash never leaves a torn one behind.
+     *
+     * @return false if it could not be written
+     */
+    synchronized boolean save() {
+        List<KEY> keys = cache.hotKeys(maxKeys);
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(keys.size());
+                for (KEY key : keys) {
+                    codec.write(out, key);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file))
+                throw new IOException("rename " + tmp + " to " + file);
+            Log.d(TAG, "save: " + keys.size() + " keys of " + operator.getLogTag());
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "save: " + file, e);
+            tmp.delete();
+            return false;
+        }
+    }
+
+    void close() {
+        if (periodic != null)
+            periodic.cancel(false);
+        save();
+    }
+
+    List<KEY> read() {
+        List<KEY> keys = new ArrayList<>();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    Log.w(TAG, "read: unknown format " + file);
+                    return keys;
+                }
+                int count = Math.min(in.readInt(), maxKeys);
+                for (int i = 0; i < count; i++) {
+                    keys.add(codec.read(in));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // first start
+        } catch (EOFException e) {
+            Log.w(TAG, "read: truncated " + file + ", " + keys.size() + " keys");
+        } catch (IOException e) {
+            Log.w(TAG, "read: " + file, e);
+        }
+        return keys;
+    }
+
+    void warmUp() {
+        Background.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<KEY> keys = read();
+                if (!keys.isEmpty())
+                    Background.executor().execute(new Batch(keys, System.nanoTime()));
+            }
+        });
+    }
+
+    private final class Batch implements Runnable {
+        private final List<KEY> keys;
+        private final long beginNanos;
+        private int offset;
+        private int warmed;
+
+        Batch(List<KEY> keys, long beginNanos) {
+            this.keys = keys;
+            this.beginNanos = beginNanos;
+        }
+
+        @Override
+        public void run() {
+            long elapsed = System.nanoTime() - beginNanos;
+            if (elapsed >= budgetNanos) {
+                Log.d(TAG, "warmUp: budget spent after " + warmed + " of " + keys.size() + " keys of " + operator.getLogTag());
+                return;
+            }
+
+            List<KEY> batch = new ArrayList<>(keys.subList(offset, Math.min(offset + BATCH_SIZE, keys.size())));
+            BaseDatabaseOperator.Cache.Warming<KEY, DATA> warming = cache.warming(batch);
+            try {
+                Map<KEY, DATA> datas = operator.loadAll(batch);
+                warmed += cache.warm(warming, datas);
+            } catch (Throwable e) {
+                Log.w(TAG, "warmUp: " + operator.getLogTag() + " stopped", e);
+                return;
+            } finally {
+                cache.endWarming(warming);
+            }
+
+            offset += batch.size();
+            if (offset < keys.size()) {
+                // a task per batch, flushes and refreshes queued meanwhile get their turn
+                Background.executor().execute(this);
+            } else {
+                Log.d(TAG, "warmUp: " + warmed + " of " + keys.size() + " keys of " + operator.getLogTag()
+                        + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos) + "ms");
+            }
+        }
+    }
+}
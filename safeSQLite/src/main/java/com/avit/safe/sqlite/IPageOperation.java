@@ -0,0 +1,17 @@
+package com.avit.safe.sqlite;
+
+import java.util.Map;
+
+/**
+ * An operation that can read keyset pages. Decorators implement it and throw
+ * UnsupportedOperationException when the operation they wrap does not.
+ */
+public interface IPageOperation<DATA> extends IDatabaseOperation<DATA> {
+
+    /**
+     * Keyset paging, every page costs the same however deep it is.
+     *
+     * @param token {@link Page#getNextToken()} of the previous page, null for the first one
+     */
+    Page<DATA> readPage(int pageSize, String token, Map<String, Object> objects);
+}
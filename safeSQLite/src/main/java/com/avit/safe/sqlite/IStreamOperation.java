@@ -0,0 +1,18 @@
+package com.avit.safe.sqlite;
+
+import java.util.Map;
+
+/**
+ * An operation that can hand out rows a chunk at a time. Decorators implement it and fall back to
+ * chunking the list of read(Map) or read() when the operation they wrap does not.
+ */
+public interface IStreamOperation<DATA> extends IDatabaseOperation<DATA> {
+
+    /**
+     * Reads the rows matching objects, all rows if null, without holding them all at once.
+     *
+     * @param chunkSize most rows per chunk
+     * @return the number of rows handed to consumer
+     */
+    int stream(Map<String, Object> objects, int chunkSize, ChunkConsumer<DATA> consumer);
+}
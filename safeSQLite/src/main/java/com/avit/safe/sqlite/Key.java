@@ -0,0 +1,14 @@
+package com.avit.safe.sqlite;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The {@link Column} holding the primary key of a {@link Table} entity, exactly one per entity.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Key {
+}
@@ -0,0 +1,51 @@
+package com.avit.safe.sqlite;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes the keys of a hot key snapshot, see {@link BaseDatabaseOperator.Cache.Builder#hotKeys}.
+ */
+public interface KeyCodec<KEY> {
+
+    KeyCodec<String> STRING = new KeyCodec<String>() {
+        @Override
+        public void write(DataOutput out, String key) throws IOException {
+            out.writeUTF(key);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+    };
+
+    KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        @Override
+        public void write(DataOutput out, Long key) throws IOException {
+            out.writeLong(key);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+        @Override
+        public void write(DataOutput out, Integer key) throws IOException {
+            out.writeInt(key);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    void write(DataOutput out, KEY key) throws IOException;
+
+    KEY read(DataInput in) throws IOException;
+}
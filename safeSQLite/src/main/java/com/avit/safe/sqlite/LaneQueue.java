@@ -0,0 +1,283 @@
+package com.avit.safe.sqlite;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue of {@link AsyncDatabaseOperator} with one FIFO lane per priority.
+ * <p>
+ * The highest priority lane whose head may run is served first, unless the head of a lower lane
+ * has waited longer than the starvation limit, then the longest waiting one goes first. A task
+ * may not run before the task its calling thread submitted earlier, see
+ * {@link AsyncDatabaseOperator.AsyncTask#after}. That task was always submitted earlier, so the
+ * oldest queued task can always run once it is out of the way, and a read it waits for on
+ * another queue calls {@link #wake()} when done, so the queue never stalls.
+ */
+final class LaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    static final int LANES = 3;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Runnable>[] lanes;
+    private int count;
+
+    private volatile long starvationNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    LaneQueue() {
+        lanes = new ArrayDeque[LANES];
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    void setStarvationMillis(long millis) {
+        starvationNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static int laneOf(Runnable r) {
+        if (r instanceof AsyncDatabaseOperator.AsyncTask)
+            return ((AsyncDatabaseOperator.AsyncTask) r).priority;
+        return AsyncDatabaseOperator.PRIORITY_NORMAL;
+    }
+
+    private static boolean runnable(Runnable r) {
+        if (!(r instanceof AsyncDatabaseOperator.AsyncTask))
+            return true;
+        AsyncDatabaseOperator.AsyncTask after = ((AsyncDatabaseOperator.AsyncTask) r).after;
+        return after == null || after.passed();
+    }
+
+    private static long queuedAt(Runnable r) {
+        if (r instanceof AsyncDatabaseOperator.AsyncTask)
+            return ((AsyncDatabaseOperator.AsyncTask) r).queuedAt;
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return lane index of the task to serve next, -1 if none may run
+     */
+    private int select() {
+        long now = System.nanoTime();
+        long limit = starvationNanos;
+
+        int best = -1;
+        int starved = -1;
+        long starvedAt = 0;
+        for (int i = LANES - 1; i >= 0; i--) {
+            Runnable head = lanes[i].peekFirst();
+            if (head == null || !runnable(head))
+                continue;
+            if (best < 0)
+                best = i;
+
+            long at = queuedAt(head);
+            if (i < best && now - at > limit && (starved < 0 || at - starvedAt < 0)) {
+                starved = i;
+                starvedAt = at;
+            }
+        }
+        return starved >= 0 ? starved : best;
+    }
+
+    private Runnable dequeue() {
+        int lane = select();
+        if (lane < 0)
+            return null;
+        count--;
+        return lanes[lane].pollFirst();
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+        if (r == null)
+            throw new NullPointerException();
+
+        lock.lock();
+        try {
+            lanes[laneOf(r)].addLast(r);
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets a waiting consumer look again at heads that may have become runnable.
+     */
+    void wake() {
+        lock.lock();
+        try {
+            if (count > 0)
+                notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable r) {
+        offer(r);
+    }
+
+    @Override
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) {
+        return offer(r);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Runnable r;
+            while ((r = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable r;
+            while ((r = dequeue()) == null) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            int lane = select();
+            return lane < 0 ? null : lanes[lane].peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Runnable))
+            return false;
+
+        lock.lock();
+        try {
+            if (lanes[laneOf((Runnable) o)].removeFirstOccurrence(o)) {
+                count--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            Runnable r;
+            while (n < maxElements && (r = dequeue()) != null) {
+                c.add(r);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Weakly consistent snapshot, lanes from low to high priority and oldest first within each lane.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(count);
+            for (int i = 0; i < LANES; i++) {
+                snapshot.addAll(lanes[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        final Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                return last = it.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+                LaneQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+}
@@ -1,15 +1,409 @@
 package com.avit.safe.sqlite;
 
-import android.util.LruCache;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class MemoryCache<K,V> extends LruCache<K, V>
+/**
+ * LRU cache split into independently locked segments, so threads hitting different keys do not
+ * contend on one monitor the way {@link android.util.LruCache} does.
+ * <p>
+ * Every segment starts with an equal share of the budget and evicts its own least recently used
+ * entries, the cache as a whole is therefore only approximately LRU. An entry heavier than the
+ * budget of its segment makes the segment borrow what it is over from the other segments, taken
+ * in turn, which evict to make room. A segment gives back what it borrowed once it holds no more
+ * than its share, so the sum of the budgets stays the maximum. Only an entry heavier than the
+ * whole maximum is evicted as soon as it is put.
+ */
+public class MemoryCache<K,V>
 {
+    private static final int MAX_SEGMENTS = 64;
+    /**
+     * smallest budget a segment should get before the cache uses fewer of them
+     */
+    private static final int MIN_SEGMENT_WEIGHT = 16;
+
+    private final Weigher<K, V> weigher;
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final int maxSize;
+    // the segment that lent last, the next borrow starts after it
+    private final AtomicInteger lastLender = new AtomicInteger();
+
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
      *                the maximum number of entries in the cache. For all other caches,
      *                this is the maximum sum of the sizes of the entries in this cache.
      */
     public MemoryCache(int maxSize) {
-        super(maxSize);
+        this(maxSize, null);
+    }
+
+    /**
+     * @param maxWeight maximum sum of the weights of the entries in this cache
+     * @param weigher   weighs every entry, null to count entries instead
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MemoryCache(int maxWeight, Weigher<K, V> weigher) {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("maxSize <= 0");
+
+        this.weigher = weigher;
+        this.maxSize = maxWeight;
+
+        int wanted = Math.min(MAX_SEGMENTS, Runtime.getRuntime().availableProcessors() * 4);
+        int count = 1;
+        while (count < wanted && maxWeight / (count << 1) >= MIN_SEGMENT_WEIGHT) {
+            count <<= 1;
+        }
+
+        segments = new Segment[count];
+        segmentMask = count - 1;
+        int share = maxWeight / count;
+        for (int i = 0; i < count; i++) {
+            // the first segment absorbs the remainder
+            segments[i] = new Segment<>(i == 0 ? maxWeight - share * (count - 1) : share);
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        return segments[indexFor(key)];
+    }
+
+    private int indexFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & segmentMask;
+    }
+
+    public final V get(K key) {
+        if (key == null)
+            throw new NullPointerException("key == null");
+
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.map.get(key);
+        }
+    }
+
+    public final V put(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException("key == null || value == null");
+
+        int weight = safeSizeOf(key, value);
+        Segment<K, V> segment = segmentFor(key);
+        V previous;
+        List<Map.Entry<K, V>> evicted = null;
+        int needed = 0;
+        int surplus;
+        synchronized (segment) {
+            previous = segment.map.put(key, value);
+            segment.weight += weight;
+            if (previous != null)
+                segment.weight -= safeSizeOf(key, previous);
+            if (weight > maxSize)
+                evicted = segment.trimToSize(this, segment.maxWeight, null);
+            else if (weight > segment.maxWeight)
+                needed = segment.weight - segment.maxWeight;
+            else
+                evicted = segment.trimToSize(this, segment.maxWeight, key);
+            surplus = segment.surplus();
+        }
+
+        if (previous != null)
+            entryRemoved(false, key, previous, value);
+        notifyEvicted(evicted);
+        if (needed > 0)
+            borrow(segment, needed);
+        repay(segment, surplus);
+        return previous;
+    }
+
+    /**
+     * Moves budget to segment from the others, which evict to stay within what they keep, then
+     * trims segment to what it got. No two segment locks are held at once.
+     */
+    private void borrow(Segment<K, V> segment, int needed) {
+        int got = 0;
+        int last = lastLender.get();
+        for (int i = 1; i <= segments.length && got < needed; i++) {
+            int index = (last + i) & segmentMask;
+            Segment<K, V> lender = segments[index];
+            if (lender == segment)
+                continue;
+
+            List<Map.Entry<K, V>> evicted;
+            synchronized (lender) {
+                int take = Math.min(lender.maxWeight, needed - got);
+                lender.maxWeight -= take;
+                got += take;
+                evicted = lender.trimToSize(this, lender.maxWeight, null);
+            }
+            notifyEvicted(evicted);
+            lastLender.set(index);
+        }
+
+        List<Map.Entry<K, V>> evicted;
+        int surplus;
+        synchronized (segment) {
+            segment.maxWeight += got;
+            evicted = segment.trimToSize(this, segment.maxWeight, null);
+            surplus = segment.surplus();
+        }
+        notifyEvicted(evicted);
+        repay(segment, surplus);
+    }
+
+    /**
+     * Gives surplus taken from segment back to the segments short of their share.
+     */
+    private void repay(Segment<K, V> segment, int surplus) {
+        for (int i = 0; i < segments.length && surplus > 0; i++) {
+            Segment<K, V> lender = segments[i];
+            if (lender == segment)
+                continue;
+
+            synchronized (lender) {
+                int give = Math.min(surplus, lender.share - lender.maxWeight);
+                if (give > 0) {
+                    lender.maxWeight += give;
+                    surplus -= give;
+                }
+            }
+        }
+        // nobody is short, another borrow raced with this one
+        if (surplus > 0) {
+            synchronized (segment) {
+                segment.maxWeight += surplus;
+            }
+        }
+    }
+
+    public final V remove(K key) {
+        if (key == null)
+            throw new NullPointerException("key == null");
+
+        Segment<K, V> segment = segmentFor(key);
+        V previous;
+        int surplus;
+        synchronized (segment) {
+            previous = segment.map.remove(key);
+            if (previous != null)
+                segment.weight -= safeSizeOf(key, previous);
+            surplus = segment.surplus();
+        }
+
+        if (previous != null)
+            entryRemoved(false, key, previous, null);
+        repay(segment, surplus);
+        return previous;
+    }
+
+    /**
+     * Removes the entry only while key still maps to this very value.
+     */
+    public final boolean remove(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException("key == null || value == null");
+
+        Segment<K, V> segment = segmentFor(key);
+        int surplus;
+        synchronized (segment) {
+            if (segment.map.get(key) != value)
+                return false;
+            segment.map.remove(key);
+            segment.weight -= safeSizeOf(key, value);
+            surplus = segment.surplus();
+        }
+
+        entryRemoved(false, key, value, null);
+        repay(segment, surplus);
+        return true;
+    }
+
+    public final void evictAll() {
+        for (Segment<K, V> segment : segments) {
+            List<Map.Entry<K, V>> evicted;
+            int surplus;
+            synchronized (segment) {
+                evicted = segment.trimToSize(this, -1, null);
+                surplus = segment.surplus();
+            }
+            notifyEvicted(evicted);
+            repay(segment, surplus);
+        }
+    }
+
+    /**
+     * Like {@link #evictAll()}, but the entries are reported as removed, not evicted.
+     */
+    public final void removeAll() {
+        for (Segment<K, V> segment : segments) {
+            List<Map.Entry<K, V>> removed;
+            int surplus;
+            synchronized (segment) {
+                removed = segment.trimToSize(this, -1, null);
+                surplus = segment.surplus();
+            }
+            notifyRemoved(false, removed);
+            repay(segment, surplus);
+        }
+    }
+
+    private void notifyEvicted(List<Map.Entry<K, V>> evicted) {
+        notifyRemoved(true, evicted);
+    }
+
+    private void notifyRemoved(boolean evicted, List<Map.Entry<K, V>> entries) {
+        if (entries == null)
+            return;
+        for (Map.Entry<K, V> entry : entries) {
+            entryRemoved(evicted, entry.getKey(), entry.getValue(), null);
+        }
+    }
+
+    /**
+     * Called outside the segment lock for every entry that is evicted, removed or replaced.
+     *
+     * @param evicted true if the entry was dropped to make room, false for remove and put
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    protected int sizeOf(K key, V value) {
+        if (weigher == null)
+            return 1;
+        return weigher.weigh(key, value);
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0)
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        return result;
+    }
+
+    /**
+     * @return the number of entries, or the sum of their sizes when {@link #sizeOf} is overridden
+     */
+    public final int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.weight;
+        }
+        return size;
+    }
+
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    public final int segmentCount() {
+        return segments.length;
+    }
+
+    int segmentOf(K key) {
+        return indexFor(key);
+    }
+
+    int budgetOf(int segment) {
+        synchronized (segments[segment]) {
+            return segments[segment].maxWeight;
+        }
+    }
+
+    /**
+     * @return a copy of the entries, least recently used first within each segment
+     */
+    public final Map<K, V> snapshot() {
+        Map<K, V> snapshot = new LinkedHashMap<>();
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                snapshot.putAll(segment.map);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return up to max keys, the most recently used of every segment first
+     */
+    public final List<K> hotKeys(int max) {
+        List<List<K>> perSegment = new ArrayList<>(segments.length);
+        int total = 0;
+        for (Segment<K, V> segment : segments) {
+            List<K> keys;
+            synchronized (segment) {
+                keys = new ArrayList<>(segment.map.keySet());
+            }
+            total += keys.size();
+            perSegment.add(keys);
+        }
+
+        int n = Math.min(max, total);
+        List<K> hot = new ArrayList<>(n);
+        for (int depth = 1; hot.size() < n; depth++) {
+            for (List<K> keys : perSegment) {
+                int i = keys.size() - depth;
+                if (i >= 0 && hot.size() < n)
+                    hot.add(keys.get(i));
+            }
+        }
+        return hot;
+    }
+
+    private static final class Segment<K, V> {
+        final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+        final int share;
+        // guarded by the segment lock, changed by borrow and repay
+        int maxWeight;
+        volatile int weight;
+
+        Segment(int maxWeight) {
+            this.share = maxWeight;
+            this.maxWeight = maxWeight;
+        }
+
+        /**
+         * Caller holds the segment lock. Drops the borrowed budget no longer needed.
+         *
+         * @return the budget to give back, 0 if none
+         */
+        int surplus() {
+            int surplus = maxWeight - Math.max(weight, share);
+            if (surplus <= 0)
+                return 0;
+            maxWeight -= surplus;
+            return surplus;
+        }
+
+        /**
+         * Caller holds the segment lock.
+         *
+         * @param keep key just put, kept even if it alone is over maxWeight, or null
+         * @return the evicted entries, null if none
+         */
+        List<Map.Entry<K, V>> trimToSize(MemoryCache<K, V> cache, int maxWeight, K keep) {
+            List<Map.Entry<K, V>> evicted = null;
+            Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+            while (weight > maxWeight && it.hasNext()) {
+                Map.Entry<K, V> eldest = it.next();
+                K key = eldest.getKey();
+                // the most recently used, everything older is gone
+                if (keep != null && keep.equals(key))
+                    break;
+                V value = eldest.getValue();
+                it.remove();
+                weight -= cache.safeSizeOf(key, value);
+                if (evicted == null)
+                    evicted = new ArrayList<>();
+                evicted.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+            }
+            return evicted;
+        }
     }
 }
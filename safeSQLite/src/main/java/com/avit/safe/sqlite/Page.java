@@ -0,0 +1,104 @@
+package com.avit.safe.sqlite;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * One page of {@link IPageOperation#readPage}, read only. Being a list it also reaches
+ * {@link AsyncDatabaseOperator.AsyncReadListener#onRead} as is, cast it back to get the token.
+ */
+public final class Page<DATA> extends AbstractList<DATA> implements RandomAccess {
+
+    private static final Page<Object> EMPTY = new Page<>(Collections.emptyList(), null);
+
+    @SuppressWarnings("unchecked")
+    public static <DATA> Page<DATA> empty() {
+        return (Page<DATA>) EMPTY;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if operation does not implement {@link IPageOperation}
+     */
+    static <DATA> Page<DATA> read(IDatabaseOperation<DATA> operation, int pageSize, String token,
+                                  Map<String, Object> objects) {
+        if (!(operation instanceof IPageOperation))
+            throw new UnsupportedOperationException(operation.getLogTag() + " does not read pages");
+        return ((IPageOperation<DATA>) operation).readPage(pageSize, token, objects);
+    }
+
+    /**
+     * @param lastKey sort key of the last row, null if this is the last page
+     */
+    public static <DATA> Page<DATA> of(List<DATA> datas, Object lastKey) {
+        return new Page<>(datas, lastKey == null ? null : encode(lastKey));
+    }
+
+    private final List<DATA> datas;
+    private final String nextToken;
+
+    private Page(List<DATA> datas, String nextToken) {
+        this.datas = datas;
+        this.nextToken = nextToken;
+    }
+
+    /**
+     * @return the token of the following page, null if this is the last one
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    @Override
+    public DATA get(int index) {
+        return datas.get(index);
+    }
+
+    @Override
+    public int size() {
+        return datas.size();
+    }
+
+    /**
+     * Sort keys may be Long, Integer or String, they should be unique, e.g. the primary key,
+     * rows sharing the key of a page's last row are skipped otherwise.
+     */
+    static String encode(Object key) {
+        if (key instanceof Long)
+            return "l" + key;
+        if (key instanceof Integer)
+            return "i" + key;
+        if (key instanceof String)
+            return "s" + key;
+        throw new IllegalArgumentException("unsupported sort key: " + key.getClass().getName());
+    }
+
+    /**
+     * @return the sort key in token, null for the first page
+     */
+    public static Object decode(String token) {
+        if (token == null || token.isEmpty())
+            return null;
+
+        String value = token.substring(1);
+        try {
+            switch (token.charAt(0)) {
+                case 'l':
+                    return Long.parseLong(value);
+                case 'i':
+                    return Integer.parseInt(value);
+                case 's':
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("bad page token: " + token);
+    }
+}
@@ -0,0 +1,386 @@
+package com.avit.safe.sqlite;
+
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of read(Map), read(pageSize, offset, Map) and count(Map) by their criteria.
+ * <p>
+ * Every write through this operator invalidates the cached results it may affect, writes that
+ * bypass it do not, call {@link #invalidate()} after those. Cached lists are shared between
+ * callers and therefore read only.
+ */
+public final class QueryCacheOperator<DATA> implements IStreamOperation<DATA>, IPageOperation<DATA> {
+
+    public static <DATA> QueryCacheOperator<DATA> cached(IDatabaseOperation<DATA> operation) {
+        return cached(operation, 10 * 1024, 256);
+    }
+
+    /**
+     * @param maxResultRows rows kept across all cached read results
+     * @param maxCounts     cached count results
+     */
+    public static <DATA> QueryCacheOperator<DATA> cached(IDatabaseOperation<DATA> operation, int maxResultRows, int maxCounts) {
+        return new QueryCacheOperator<>(operation, maxResultRows, maxCounts);
+    }
+
+    private final IDatabaseOperation<DATA> operation;
+    private final String TAG;
+
+    private final MemoryCache<QueryKey, List<DATA>> results;
+    private final MemoryCache<QueryKey, Integer> counts;
+    // bumped by every invalidation, a query that raced with one is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong readHits = new AtomicLong();
+    private final AtomicLong readMisses = new AtomicLong();
+    private final AtomicLong countHits = new AtomicLong();
+    private final AtomicLong countMisses = new AtomicLong();
+
+    private volatile TouchedColumns<DATA> touchedColumns;
+
+    private QueryCacheOperator(IDatabaseOperation<DATA> operation, int maxResultRows, int maxCounts) {
+        this.operation = operation;
+        this.TAG = operation.getLogTag();
+        this.results = new MemoryCache<>(maxResultRows, new Weigher<QueryKey, List<DATA>>() {
+            @Override
+            public int weigh(QueryKey key, List<DATA> data) {
+                return data.size() + 1;
+            }
+        });
+        this.counts = new MemoryCache<>(maxCounts);
+    }
+
+    /**
+     * Saves normally invalidate everything. With touched columns a save only drops the cached
+     * counts filtering on a column it changed, cached read results still go since their rows changed.
+     */
+    public void setTouchedColumns(TouchedColumns<DATA> touchedColumns) {
+        this.touchedColumns = touchedColumns;
+    }
+
+    public interface TouchedColumns<DATA> {
+        /**
+         * @return the columns saving data changes, null if unknown or if data may be a new row
+         */
+        Set<String> touchedColumns(DATA data);
+    }
+
+    @Override
+    public String getLogTag() {
+        return operation.getLogTag();
+    }
+
+    /**
+     * -------save-------------
+     */
+    @Override
+    public int saveOrUpdate(DATA data) {
+        try {
+            return operation.saveOrUpdate(data);
+        } finally {
+            invalidate(touched(Collections.singletonList(data)));
+        }
+    }
+
+    @Override
+    public int saveOrUpdate(List<DATA> datas) {
+        try {
+            return operation.saveOrUpdate(datas);
+        } finally {
+            invalidate(touched(datas));
+        }
+    }
+
+    private Set<String> touched(List<DATA> datas) {
+        TouchedColumns<DATA> touchedColumns = this.touchedColumns;
+        if (touchedColumns == null)
+            return null;
+
+        Set<String> columns = null;
+        for (DATA data : datas) {
+            Set<String> touched = touchedColumns.touchedColumns(data);
+            if (touched == null)
+                return null;
+            if (columns == null)
+                columns = new HashSet<>();
+            columns.addAll(touched);
+        }
+        return columns;
+    }
+
+    /**
+     * -------read-------------
+     */
+    @Override
+    public DATA read(DATA data) {
+        return operation.read(data);
+    }
+
+    @Override
+    public List<DATA> read(Map<String, Object> objects) {
+        return read(QueryKey.read(objects, -1, -1), objects, -1, -1);
+    }
+
+    @Override
+    public List<DATA> read(int pageSize, int offset, Map<String, Object> object) {
+        return read(QueryKey.read(object, pageSize, offset), object, pageSize, offset);
+    }
+
+    private List<DATA> read(QueryKey key, Map<String, Object> objects, int pageSize, int offset) {
+        List<DATA> ret = results.get(key);
+        if (ret != null) {
+            readHits.incrementAndGet();
+            return ret;
+        }
+        readMisses.incrementAndGet();
+
+        long gen = generation.get();
+        ret = pageSize < 0 ? operation.read(objects) : operation.read(pageSize, offset, objects);
+        if (ret == null)
+            return null;
+
+        ret = Collections.unmodifiableList(ret);
+        if (generation.get() == gen) {
+            results.put(key, ret);
+            if (generation.get() != gen)
+                results.remove(key);
+        }
+        return ret;
+    }
+
+    @Override
+    public List<DATA> read() {
+        return operation.read();
+    }
+
+    @Override
+    public Page<DATA> readPage(int pageSize, String token, Map<String, Object> objects) {
+        return Page.read(operation, pageSize, token, objects);
+    }
+
+    @Override
+    public int stream(Map<String, Object> objects, int chunkSize, ChunkConsumer<DATA> consumer) {
+        return Chunks.stream(operation, objects, chunkSize, consumer);
+    }
+
+    /**
+     * -------delete-------------
+     */
+    @Override
+    public int delete(DATA data) {
+        try {
+            return operation.delete(data);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public int delete(Map<String, Object> objects) {
+        try {
+            return operation.delete(objects);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public int delete(List<DATA> datas) {
+        try {
+            return operation.delete(datas);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public int delete() {
+        try {
+            return operation.delete();
+        } finally {
+            invalidate();
+        }
+    }
+
+    /**
+     * --------count--------------
+     */
+    @Override
+    public int count() {
+        return operation.count();
+    }
+
+    @Override
+    public int count(DATA data) {
+        return operation.count(data);
+    }
+
+    @Override
+    public int count(Map<String, Object> objects) {
+        QueryKey key = QueryKey.count(objects);
+        Integer ret = counts.get(key);
+        if (ret != null) {
+            countHits.incrementAndGet();
+            return ret;
+        }
+        countMisses.incrementAndGet();
+
+        long gen = generation.get();
+        int count = operation.count(objects);
+        if (generation.get() == gen) {
+            counts.put(key, count);
+            if (generation.get() != gen)
+                counts.remove(key);
+        }
+        return count;
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public void invalidate() {
+        invalidate(null);
+    }
+
+    /**
+     * @param columns the columns a write changed, null if unknown
+     */
+    private void invalidate(Set<String> columns) {
+        generation.incrementAndGet();
+        results.evictAll();
+
+        if (columns == null) {
+            counts.evictAll();
+            return;
+        }
+
+        int dropped = 0;
+        for (QueryKey key : counts.snapshot().keySet()) {
+            if (key.filtersOn(columns)) {
+                counts.remove(key);
+                dropped++;
+            }
+        }
+        Log.d(TAG, "invalidate: " + columns + ", dropped " + dropped + " counts");
+    }
+
+    public Stats stats() {
+        return new Stats(readHits.get(), readMisses.get(), countHits.get(), countMisses.get(),
+                results.size(), counts.size());
+    }
+
+    public static final class Stats {
+        public final long readHits;
+        public final long readMisses;
+        public final long countHits;
+        public final long countMisses;
+        /**
+         * rows held by cached read results, plus one per result
+         */
+        public final int resultWeight;
+        public final int cachedCounts;
+
+        Stats(long readHits, long readMisses, long countHits, long countMisses, int resultWeight, int cachedCounts) {
+            this.readHits = readHits;
+            this.readMisses = readMisses;
+            this.countHits = countHits;
+            this.countMisses = countMisses;
+            this.resultWeight = resultWeight;
+            this.cachedCounts = cachedCounts;
+        }
+
+        public double readHitRate() {
+            long total = readHits + readMisses;
+            return total == 0 ? 0 : (double) readHits / total;
+        }
+
+        public double countHitRate() {
+            long total = countHits + countMisses;
+            return total == 0 ? 0 : (double) countHits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "readHits=" + readHits +
+                    ", readMisses=" + readMisses +
+                    ", countHits=" + countHits +
+                    ", countMisses=" + countMisses +
+                    ", resultWeight=" + resultWeight +
+                    ", cachedCounts=" + cachedCounts +
+                    '}';
+        }
+    }
+
+    /**
+     * Criteria copied into a sorted map, so equal filters match whatever map they came in.
+     */
+    static final class QueryKey {
+        private static final int READ = 1;
+        private static final int COUNT = 2;
+
+        private final int kind;
+        private final TreeMap<String, Object> criteria;
+        private final int pageSize;
+        private final int offset;
+        private final int hash;
+
+        private QueryKey(int kind, Map<String, Object> criteria, int pageSize, int offset) {
+            this.kind = kind;
+            this.criteria = criteria == null ? null : new TreeMap<>(criteria);
+            this.pageSize = pageSize;
+            this.offset = offset;
+
+            int h = kind;
+            h = 31 * h + pageSize;
+            h = 31 * h + offset;
+            h = 31 * h + (this.criteria == null ? 0 : this.criteria.hashCode());
+            this.hash = h;
+        }
+
+        static QueryKey read(Map<String, Object> criteria, int pageSize, int offset) {
+            return new QueryKey(READ, criteria, pageSize, offset);
+        }
+
+        static QueryKey count(Map<String, Object> criteria) {
+            return new QueryKey(COUNT, criteria, -1, -1);
+        }
+
+        boolean filtersOn(Collection<String> columns) {
+            if (criteria == null)
+                return false;
+            for (String column : columns) {
+                if (criteria.containsKey(column))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof QueryKey))
+                return false;
+            QueryKey key = (QueryKey) o;
+            return kind == key.kind
+                    && pageSize == key.pageSize
+                    && offset == key.offset
+                    && (criteria == null ? key.criteria == null : criteria.equals(key.criteria));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
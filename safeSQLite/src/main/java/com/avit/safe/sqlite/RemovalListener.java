@@ -0,0 +1,26 @@
+package com.avit.safe.sqlite;
+
+/**
+ * Told about every entity leaving a {@link BaseDatabaseOperator.Cache}, outside of its locks.
+ */
+public interface RemovalListener<KEY, DATA> {
+
+    /**
+     * removed by a delete or removeCache
+     */
+    int CAUSE_EXPLICIT = 0;
+    /**
+     * replaced by a newer entity saved under the same key
+     */
+    int CAUSE_REPLACED = 1;
+    /**
+     * evicted to stay within the cache budget
+     */
+    int CAUSE_SIZE = 2;
+    /**
+     * dropped after its time to live
+     */
+    int CAUSE_EXPIRED = 3;
+
+    void onRemoval(KEY key, DATA data, int cause);
+}
@@ -0,0 +1,172 @@
+package com.avit.safe.sqlite;
+
+import java.util.Random;
+
+/**
+ * Decides how {@link SafeDatabaseOperator} waits between attempts when the database
+ * or a table is locked, and when it stops retrying.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Returned by {@link #delayMillis(int, long)} when the retry budget is exhausted.
+     */
+    public static final long GIVE_UP = -1;
+
+    /**
+     * 1ms doubling up to 64ms with full jitter, for at most 30 seconds.
+     */
+    public static final RetryPolicy DEFAULT = new Builder().build();
+
+    public static RetryPolicy fixed(long delayMillis, int maxAttempts) {
+        return new Builder()
+                .baseDelay(delayMillis)
+                .maxDelay(delayMillis)
+                .multiplier(1)
+                .jitter(0)
+                .maxAttempts(maxAttempts)
+                .build();
+    }
+
+    public static Builder exponential() {
+        return new Builder();
+    }
+
+    private static final Random random = new Random();
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final int maxAttempts;
+    private final long maxElapsedMillis;
+
+    private RetryPolicy(Builder builder) {
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.multiplier = builder.multiplier;
+        this.jitter = builder.jitter;
+        this.maxAttempts = builder.maxAttempts;
+        this.maxElapsedMillis = builder.maxElapsedMillis;
+    }
+
+    /**
+     * @param attempt       number of failed attempts so far, starting at 1
+     * @param elapsedMillis time spent since the first attempt
+     * @return how long to wait before the next attempt, or {@link #GIVE_UP}
+     */
+    public long delayMillis(int attempt, long elapsedMillis) {
+
+        if (maxAttempts > 0 && attempt >= maxAttempts)
+            return GIVE_UP;
+
+        if (maxElapsedMillis > 0 && elapsedMillis >= maxElapsedMillis)
+            return GIVE_UP;
+
+        double delay = baseDelayMillis * Math.pow(multiplier, attempt - 1);
+        if (delay > maxDelayMillis)
+            delay = maxDelayMillis;
+
+        if (jitter > 0) {
+            double r;
+            synchronized (random) {
+                r = random.nextDouble();
+            }
+            delay = delay * (1 - jitter) + delay * jitter * r;
+        }
+
+        long ret = Math.max(1, Math.round(delay));
+
+        // never sleep past the elapsed budget
+        if (maxElapsedMillis > 0 && elapsedMillis + ret > maxElapsedMillis)
+            ret = Math.max(1, maxElapsedMillis - elapsedMillis);
+
+        return ret;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getMaxElapsedMillis() {
+        return maxElapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "base=" + baseDelayMillis +
+                ", max=" + maxDelayMillis +
+                ", multiplier=" + multiplier +
+                ", jitter=" + jitter +
+                ", maxAttempts=" + maxAttempts +
+                ", maxElapsed=" + maxElapsedMillis +
+                '}';
+    }
+
+    public static final class Builder {
+        private long baseDelayMillis = 1;
+        private long maxDelayMillis = 64;
+        private double multiplier = 2;
+        private double jitter = 1;
+        private int maxAttempts = 0;
+        private long maxElapsedMillis = 30 * 1000;
+
+        public Builder baseDelay(long millis) {
+            if (millis < 1)
+                throw new IllegalArgumentException("baseDelay < 1: " + millis);
+            this.baseDelayMillis = millis;
+            return this;
+        }
+
+        public Builder maxDelay(long millis) {
+            if (millis < 1)
+                throw new IllegalArgumentException("maxDelay < 1: " + millis);
+            this.maxDelayMillis = millis;
+            return this;
+        }
+
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1)
+                throw new IllegalArgumentException("multiplier < 1: " + multiplier);
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param jitter fraction of each delay that is randomized, 0 (none) to 1 (full jitter)
+         */
+        public Builder jitter(double jitter) {
+            if (jitter < 0 || jitter > 1)
+                throw new IllegalArgumentException("jitter out of [0, 1]: " + jitter);
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts total attempts including the first one, 0 for unlimited
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 0)
+                throw new IllegalArgumentException("maxAttempts < 0: " + maxAttempts);
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param millis time budget across all attempts, 0 for unlimited
+         */
+        public Builder maxElapsed(long millis) {
+            if (millis < 0)
+                throw new IllegalArgumentException("maxElapsed < 0: " + millis);
+            this.maxElapsedMillis = millis;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxDelayMillis < baseDelayMillis)
+                maxDelayMillis = baseDelayMillis;
+            return new RetryPolicy(this);
+        }
+    }
+}
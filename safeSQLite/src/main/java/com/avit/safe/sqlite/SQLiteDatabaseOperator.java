@@ -0,0 +1,605 @@
+package com.avit.safe.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link BaseDatabaseOperator} over one SQLite table, described by a {@link TableMapping}.
+ * <p>
+ * SQL is generated once per operation shape, the operation and the shape of its criteria, see
+ * {@link CriteriaCompiler}, and writes and counts reuse compiled statements from a bounded pool.
+ * Criteria values are matched by equality, null matches NULL, a collection is an IN list and a
+ * {@link Condition} anything else. Queries go through rawQuery with the same SQL for the same
+ * shape, which the connection keeps prepared. saveOrUpdate is INSERT OR REPLACE by key.
+ */
+public class SQLiteDatabaseOperator<KEY, DATA> extends BaseDatabaseOperator<KEY, DATA> {
+
+    private static final String TAG = "SQLiteDatabaseOperator";
+
+    private static final int SELECT = 1;
+    private static final int SELECT_PAGE = 2;
+    private static final int SELECT_AFTER = 3;
+    private static final int COUNT = 4;
+    private static final int DELETE = 5;
+
+    private final SQLiteDatabase db;
+    private final TableMapping<KEY, DATA> mapping;
+    private final StatementCache statements;
+    private final CriteriaCompiler compiler;
+    private final ConcurrentHashMap<Shape, String> sqls = new ConcurrentHashMap<>();
+
+    private final String columnList;
+    private final String insertSql;
+    private final String deleteByKeySql;
+    private final String countByKeySql;
+    private final String countAllSql;
+    private final String deleteAllSql;
+
+    public SQLiteDatabaseOperator(SQLiteDatabase db, TableMapping<KEY, DATA> mapping) {
+        this(db, mapping, new Cache.Builder<KEY, DATA>(), 32);
+    }
+
+    /**
+     * @param maxStatements compiled statements kept for reuse
+     */
+    public SQLiteDatabaseOperator(SQLiteDatabase db, TableMapping<KEY, DATA> mapping,
+                                  Cache.Builder<KEY, DATA> cacheBuilder, int maxStatements) {
+        super(cacheBuilder);
+        this.db = db;
+        this.mapping = mapping;
+        this.statements = new StatementCache(db, maxStatements);
+        Set<String> columns = new HashSet<>(Arrays.asList(mapping.columns()));
+        if (!columns.contains(mapping.keyColumn()))
+            throw new IllegalArgumentException("key column " + mapping.keyColumn() + " not in columns");
+
+        this.compiler = new CriteriaCompiler(mapping.table(), columns);
+
+        String table = mapping.table();
+        String key = mapping.keyColumn();
+        StringBuilder list = new StringBuilder();
+        StringBuilder marks = new StringBuilder();
+        for (String column : mapping.columns()) {
+            if (list.length() > 0) {
+                list.append(", ");
+                marks.append(", ");
+            }
+            list.append(column);
+            marks.append('?');
+        }
+        this.columnList = list.toString();
+        this.insertSql = "INSERT OR REPLACE INTO " + table + " (" + columnList + ") VALUES (" + marks + ")";
+        this.deleteByKeySql = "DELETE FROM " + table + " WHERE " + key + " = ?";
+        this.countByKeySql = "SELECT COUNT(*) FROM " + table + " WHERE " + key + " = ?";
+        this.countAllSql = "SELECT COUNT(*) FROM " + table;
+        this.deleteAllSql = "DELETE FROM " + table;
+    }
+
+    @Override
+    public String getLogTag() {
+        return TAG + "-" + mapping.table();
+    }
+
+    @Override
+    protected KEY dataKey(DATA data) {
+        return mapping.key(data);
+    }
+
+    public TableMapping<KEY, DATA> getMapping() {
+        return mapping;
+    }
+
+    /**
+     * Binds a plain value, null, a number, a boolean as 0 or 1, a string or a byte array.
+     */
+    public static void bindValue(SQLiteProgram program, int index, Object value) {
+        if (value == null)
+            program.bindNull(index);
+        else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            program.bindLong(index, ((Number) value).longValue());
+        else if (value instanceof Double || value instanceof Float)
+            program.bindDouble(index, ((Number) value).doubleValue());
+        else if (value instanceof Boolean)
+            program.bindLong(index, (Boolean) value ? 1 : 0);
+        else if (value instanceof byte[])
+            program.bindBlob(index, (byte[]) value);
+        else
+            program.bindString(index, value.toString());
+    }
+
+    /**
+     * Query arguments are strings, the column affinity converts them back for comparison.
+     */
+    private static String toArg(Object value) {
+        if (value instanceof Boolean)
+            return (Boolean) value ? "1" : "0";
+        if (value instanceof byte[])
+            throw new IllegalArgumentException("blob criteria are not supported");
+        return String.valueOf(value);
+    }
+
+    /**
+     * -------save-------------
+     */
+    @Override
+    public int saveOrUpdate(DATA data) {
+        if (getMemoryCache().isWriteBehind())
+            return super.saveOrUpdate(data);
+
+        KEY key = mapping.key(data);
+        getLocks().lock(key);
+        try {
+            int ret = insert(data);
+            super.saveOrUpdate(data);
+            return ret;
+        } finally {
+            getLocks().unlock(key);
+        }
+    }
+
+    @Override
+    public int saveOrUpdate(List<DATA> datas) {
+        if (getMemoryCache().isWriteBehind())
+            return super.saveOrUpdate(datas);
+
+        int[] taken = getLocks().lockAll(dataKeys(datas));
+        try {
+            int ret = insertAll(datas);
+            super.saveOrUpdate(datas);
+            return ret;
+        } finally {
+            getLocks().unlockAll(taken);
+        }
+    }
+
+    @Override
+    protected int store(List<DATA> datas) {
+        return insertAll(datas);
+    }
+
+    private int insert(DATA data) {
+        SQLiteStatement statement = statements.acquire(insertSql);
+        try {
+            mapping.bind(statement, data);
+            return statement.executeInsert() == -1 ? 0 : 1;
+        } finally {
+            statements.release(insertSql, statement);
+        }
+    }
+
+    private int insertAll(List<DATA> datas) {
+        int ret = 0;
+        SQLiteStatement statement = statements.acquire(insertSql);
+        try {
+            // may throw a locked exception the caller retries
+            db.beginTransaction();
+            try {
+                for (DATA data : datas) {
+                    statement.clearBindings();
+                    mapping.bind(statement, data);
+                    if (statement.executeInsert() != -1)
+                        ret++;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            statements.release(insertSql, statement);
+        }
+        return ret;
+    }
+
+    /**
+     * -------read-------------
+     */
+    @Override
+    public DATA read(DATA data) {
+        DATA ret = super.read(data);
+        if (ret != null || getMemoryCache().isReadThrough())
+            return ret;
+        return load(dataKey(data));
+    }
+
+    @Override
+    protected DATA load(KEY key) {
+        CriteriaCompiler.Filter filter = compiler.compile(
+                Collections.<String, Object>singletonMap(mapping.keyColumn(), key));
+        List<DATA> ret = query(shape(SELECT, filter, 0), args(filter, 0));
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+
+    @Override
+    protected Map<KEY, DATA> loadAll(List<KEY> keys) {
+        Map<KEY, DATA> datas = new HashMap<>();
+        if (keys.isEmpty())
+            return datas;
+
+        for (CriteriaCompiler.Filter filter : compiler.compile(
+                Collections.<String, Object>singletonMap(mapping.keyColumn(), Condition.in(keys)), 0)) {
+            for (DATA data : query(shape(SELECT, filter, 0), args(filter, 0))) {
+                datas.put(mapping.key(data), data);
+            }
+        }
+        return datas;
+    }
+
+    @Override
+    public List<DATA> read(Map<String, Object> objects) {
+        List<CriteriaCompiler.Filter> filters = compiler.compile(objects, 0);
+        if (filters.size() == 1)
+            return query(shape(SELECT, filters.get(0), 0), args(filters.get(0), 0));
+
+        List<DATA> datas = new ArrayList<>();
+        for (CriteriaCompiler.Filter filter : filters) {
+            datas.addAll(query(shape(SELECT, filter, 0), args(filter, 0)));
+        }
+        return datas;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the criteria need more parameters than one statement
+     *                                  binds, offsets can not be split, use {@link #readPage}
+     */
+    @Override
+    public List<DATA> read(int pageSize, int offset, Map<String, Object> object) {
+        List<CriteriaCompiler.Filter> filters = compiler.compile(object, 2);
+        if (filters.size() > 1)
+            throw new IllegalArgumentException("criteria too long to page by offset, use readPage: " + object.keySet());
+
+        CriteriaCompiler.Filter filter = filters.get(0);
+        String[] args = args(filter, 2);
+        args[args.length - 2] = String.valueOf(pageSize);
+        args[args.length - 1] = String.valueOf(offset);
+        return query(shape(SELECT_PAGE, filter, 0), args);
+    }
+
+    @Override
+    public List<DATA> read() {
+        return query(shape(SELECT, CriteriaCompiler.Filter.NONE, 0), null);
+    }
+
+    /**
+     * Pages by the key column, see {@link #sortKey}. Criteria split into several statements are
+     * paged each, their pages merged by key.
+     */
+    @Override
+    protected List<DATA> readAfter(int pageSize, Object after, Map<String, Object> objects) {
+        List<CriteriaCompiler.Filter> filters = compiler.compile(objects, 2);
+        if (filters.size() == 1)
+            return readAfter(pageSize, after, filters.get(0));
+
+        List<DATA> datas = new ArrayList<>();
+        for (CriteriaCompiler.Filter filter : filters) {
+            datas.addAll(readAfter(pageSize, after, filter));
+        }
+        Collections.sort(datas, new Comparator<DATA>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public int compare(DATA lhs, DATA rhs) {
+                return ((Comparable<Object>) mapping.key(lhs)).compareTo(mapping.key(rhs));
+            }
+        });
+        return datas.size() > pageSize ? new ArrayList<>(datas.subList(0, pageSize)) : datas;
+    }
+
+    private List<DATA> readAfter(int pageSize, Object after, CriteriaCompiler.Filter filter) {
+        String[] args = args(filter, after == null ? 1 : 2);
+        if (after != null)
+            args[args.length - 2] = toArg(after);
+        args[args.length - 1] = String.valueOf(pageSize);
+        return query(shape(SELECT_AFTER, filter, after == null ? 0 : 1), args);
+    }
+
+    /**
+     * Reads the cursor incrementally into one reused chunk.
+     */
+    @Override
+    public int stream(Map<String, Object> objects, int chunkSize, ChunkConsumer<DATA> consumer) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize <= 0: " + chunkSize);
+
+        List<DATA> chunk = new ArrayList<>(chunkSize);
+        int count = 0;
+        for (CriteriaCompiler.Filter filter : compiler.compile(objects, 0)) {
+            Cursor cursor = db.rawQuery(sql(shape(SELECT, filter, 0)), args(filter, 0));
+            try {
+                while (cursor.moveToNext()) {
+                    chunk.add(mapping.read(cursor));
+                    if (chunk.size() == chunkSize) {
+                        count += chunk.size();
+                        if (!consumer.onChunk(chunk))
+                            return count;
+                        chunk.clear();
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            count += chunk.size();
+            consumer.onChunk(chunk);
+        }
+        return count;
+    }
+
+    private List<DATA> query(Shape shape, String[] args) {
+        Cursor cursor = db.rawQuery(sql(shape), args);
+        try {
+            List<DATA> datas = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                datas.add(mapping.read(cursor));
+            }
+            return datas;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * -------delete-------------
+     */
+    @Override
+    public int delete(DATA data) {
+        KEY key = mapping.key(data);
+        getLocks().lock(key);
+        try {
+            super.delete(data);
+            int ret = executeUpdateDelete(deleteByKeySql, key);
+            getMemoryCache().evictCache(key);
+            return ret;
+        } finally {
+            getLocks().unlock(key);
+        }
+    }
+
+    /**
+     * Takes the table exclusively, the deleted keys are unknown. Pending write-behind writes are
+     * flushed first, the criteria decide which of them are deleted, then the whole cache is evicted.
+     * Criteria split into several statements are deleted in one transaction.
+     */
+    @Override
+    public int delete(Map<String, Object> objects) {
+        if (objects == null || objects.isEmpty())
+            return delete();
+
+        List<CriteriaCompiler.Filter> filters = compiler.compile(objects, 0);
+        getLocks().lockTable();
+        try {
+            getMemoryCache().flush();
+            int ret = 0;
+            db.beginTransaction();
+            try {
+                for (CriteriaCompiler.Filter filter : filters) {
+                    ret += executeUpdateDelete(sql(shape(DELETE, filter, 0)), filter.values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            getMemoryCache().evictCache();
+            return ret;
+        } finally {
+            getLocks().unlockTable();
+        }
+    }
+
+    @Override
+    public int delete(List<DATA> datas) {
+        int[] taken = getLocks().lockAll(dataKeys(datas));
+        try {
+            super.delete(datas);
+
+            int ret = 0;
+            SQLiteStatement statement = statements.acquire(deleteByKeySql);
+            try {
+                db.beginTransaction();
+                try {
+                    for (DATA data : datas) {
+                        bindValue(statement, 1, mapping.key(data));
+                        ret += statement.executeUpdateDelete();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } finally {
+                statements.release(deleteByKeySql, statement);
+            }
+            getMemoryCache().evictCache(datas);
+            return ret;
+        } finally {
+            getLocks().unlockAll(taken);
+        }
+    }
+
+    @Override
+    public int delete() {
+        getLocks().lockTable();
+        try {
+            super.delete();
+            int ret = executeUpdateDelete(deleteAllSql);
+            getMemoryCache().evictCache();
+            return ret;
+        } finally {
+            getLocks().unlockTable();
+        }
+    }
+
+    private int executeUpdateDelete(String sql, Object... values) {
+        SQLiteStatement statement = statements.acquire(sql);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                bindValue(statement, i + 1, values[i]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statements.release(sql, statement);
+        }
+    }
+
+    /**
+     * --------count--------------
+     */
+    @Override
+    public int count() {
+        return (int) simpleQueryForLong(countAllSql);
+    }
+
+    @Override
+    public int count(DATA data) {
+        return (int) simpleQueryForLong(countByKeySql, mapping.key(data));
+    }
+
+    @Override
+    public int count(Map<String, Object> objects) {
+        if (objects == null || objects.isEmpty())
+            return count();
+
+        int ret = 0;
+        for (CriteriaCompiler.Filter filter : compiler.compile(objects, 0)) {
+            ret += (int) simpleQueryForLong(sql(shape(COUNT, filter, 0)), filter.values);
+        }
+        return ret;
+    }
+
+    private long simpleQueryForLong(String sql, Object... values) {
+        SQLiteStatement statement = statements.acquire(sql);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                bindValue(statement, i + 1, values[i]);
+            }
+            return statement.simpleQueryForLong();
+        } finally {
+            statements.release(sql, statement);
+        }
+    }
+
+    /**
+     * Flushes and closes the compiled statements, the database stays open.
+     */
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } finally {
+            statements.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getLogTag() + "{" + statements + ", shapes=" + sqls.size() + ", criteria=" + compiler.size() + '}';
+    }
+
+    /**
+     * --------shapes--------------
+     */
+    private static Shape shape(int kind, CriteriaCompiler.Filter filter, int extra) {
+        return new Shape(kind, filter.shape, extra);
+    }
+
+    /**
+     * @param reserved trailing slots left for LIMIT, OFFSET and the like
+     */
+    private static String[] args(CriteriaCompiler.Filter filter, int reserved) {
+        if (filter.values.length + reserved == 0)
+            return null;
+
+        String[] args = new String[filter.values.length + reserved];
+        for (int i = 0; i < filter.values.length; i++) {
+            args[i] = toArg(filter.values[i]);
+        }
+        return args;
+    }
+
+    private String sql(Shape shape) {
+        String sql = sqls.get(shape);
+        if (sql != null)
+            return sql;
+
+        sql = generate(shape);
+        if (sqls.size() >= CriteriaCompiler.MAX_SHAPES) {
+            Log.w(getLogTag(), "sql: more than " + CriteriaCompiler.MAX_SHAPES + " shapes, starting over");
+            sqls.clear();
+        }
+        sqls.put(shape, sql);
+        return sql;
+    }
+
+    private String generate(Shape shape) {
+        String table = mapping.table();
+        String key = mapping.keyColumn();
+
+        StringBuilder sql = new StringBuilder();
+        switch (shape.kind) {
+            case COUNT:
+                sql.append("SELECT COUNT(*) FROM ").append(table);
+                break;
+            case DELETE:
+                sql.append("DELETE FROM ").append(table);
+                break;
+            default:
+                sql.append("SELECT ").append(columnList).append(" FROM ").append(table);
+        }
+        sql.append(compiler.where(shape.criteria));
+
+        switch (shape.kind) {
+            case SELECT_PAGE:
+                sql.append(" LIMIT ? OFFSET ?");
+                break;
+            case SELECT_AFTER:
+                if (shape.extra > 0)
+                    sql.append(shape.criteria.columns.length == 0 ? " WHERE " : " AND ").append(key).append(" > ?");
+                sql.append(" ORDER BY ").append(key).append(" LIMIT ?");
+                break;
+        }
+        return sql.toString();
+    }
+
+    /**
+     * What the SQL of an operation depends on, the values do not matter.
+     */
+    private static final class Shape {
+        final int kind;
+        final CriteriaCompiler.Shape criteria;
+        final int extra;
+
+        Shape(int kind, CriteriaCompiler.Shape criteria, int extra) {
+            this.kind = kind;
+            this.criteria = criteria;
+            this.extra = extra;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Shape))
+                return false;
+            Shape shape = (Shape) o;
+            return kind == shape.kind
+                    && extra == shape.extra
+                    && criteria.equals(shape.criteria);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * kind + criteria.hashCode()) + extra;
+        }
+    }
+}
@@ -7,10 +7,14 @@ import android.util.Log;
 import java.util.List;
 import java.util.Map;
 
-public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA> {
+public final class SafeDatabaseOperator<DATA> implements IStreamOperation<DATA>, IPageOperation<DATA> {
 
     public static <DATA> SafeDatabaseOperator<DATA> safe(IDatabaseOperation<DATA> operation) {
-        return new SafeDatabaseOperator<DATA>(operation);
+        return safe(operation, RetryPolicy.DEFAULT);
+    }
+
+    public static <DATA> SafeDatabaseOperator<DATA> safe(IDatabaseOperation<DATA> operation, RetryPolicy retryPolicy) {
+        return new SafeDatabaseOperator<DATA>(operation, retryPolicy);
     }
 
     private final IDatabaseOperation<DATA> operation;
@@ -19,19 +23,145 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
     private final Object waitLock;
 
-    private SafeDatabaseOperator(IDatabaseOperation<DATA> operation) {
+    private final RetryPolicy retryPolicy;
+
+    private final DatabaseMetrics metrics;
+
+    private volatile FailureListener failureListener;
+
+    // set on failure only, so a caller can tell a failed call from one that returned 0
+    private final ThreadLocal<Failure> lastFailure = new ThreadLocal<>();
+
+    private SafeDatabaseOperator(IDatabaseOperation<DATA> operation, RetryPolicy retryPolicy) {
+        if (retryPolicy == null)
+            throw new NullPointerException("retryPolicy == null");
+
         this.operation = operation;
         this.TAG = operation.getLogTag();
         this.waitLock = new Object();
+        this.retryPolicy = retryPolicy;
+        this.metrics = DatabaseMetrics.forTag(TAG);
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setFailureListener(FailureListener failureListener) {
+        this.failureListener = failureListener;
     }
 
-    private void waitLock(){
-        synchronized (waitLock){
+    /**
+     * @param begin {@link System#nanoTime()} before the first attempt
+     * @return true to retry, false when the retry budget is spent or the thread was interrupted
+     */
+    private boolean waitLock(String op, int attempt, long begin, Throwable e) {
+
+        long elapsed = (System.nanoTime() - begin) / 1000000;
+        long delay = retryPolicy.delayMillis(attempt, elapsed);
+        if (delay == RetryPolicy.GIVE_UP) {
+            giveUp(op, Failure.RETRY_EXHAUSTED, attempt, begin, e);
+            return false;
+        }
+
+        synchronized (waitLock) {
             try {
-                waitLock.wait(1);
-            } catch (InterruptedException e) {
+                waitLock.wait(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                giveUp(op, Failure.INTERRUPTED, attempt, begin, e);
+                return false;
             }
         }
+        return true;
+    }
+
+    private void giveUp(String op, int reason, int attempt, long begin, Throwable e) {
+        long now = System.nanoTime();
+        metrics.record(DatabaseMetrics.typeOf(op), begin, now, attempt, true);
+        onFailure(new Failure(op, reason, attempt, (now - begin) / 1000000, e));
+    }
+
+    private void fail(String op, int attempt, long begin, long last, Throwable e) {
+        metrics.record(DatabaseMetrics.typeOf(op), begin, last, attempt, true);
+        onFailure(new Failure(op, Failure.ERROR, attempt + 1, (System.nanoTime() - begin) / 1000000, e));
+    }
+
+    private void onFailure(Failure failure) {
+        if (failure.reason != Failure.ERROR)
+            Log.e(TAG, "give up: " + failure);
+
+        lastFailure.set(failure);
+
+        FailureListener listener = failureListener;
+        if (listener != null)
+            listener.onFailure(failure);
+    }
+
+    /**
+     * @return the last failure of a call on this thread since the previous takeFailure(), or null
+     */
+    Failure takeFailure() {
+        Failure failure = lastFailure.get();
+        if (failure != null)
+            lastFailure.remove();
+        return failure;
+    }
+
+    public interface FailureListener {
+        /**
+         * Called on the calling thread when an operation returns its default value instead of a result.
+         */
+        void onFailure(Failure failure);
+    }
+
+    public static final class Failure {
+
+        /**
+         * the database stayed locked for the whole retry budget
+         */
+        public static final int RETRY_EXHAUSTED = 1;
+        /**
+         * the calling thread was interrupted while backing off
+         */
+        public static final int INTERRUPTED = 2;
+        /**
+         * the operation threw something other than a lock exception
+         */
+        public static final int ERROR = 3;
+
+        public final String operation;
+        public final int reason;
+        public final int attempts;
+        public final long elapsedMillis;
+        public final Throwable cause;
+
+        Failure(String operation, int reason, int attempts, long elapsedMillis, Throwable cause) {
+            this.operation = operation;
+            this.reason = reason;
+            this.attempts = attempts;
+            this.elapsedMillis = elapsedMillis;
+            this.cause = cause;
+        }
+
+        public boolean isLocked() {
+            return reason == RETRY_EXHAUSTED || reason == INTERRUPTED;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{" +
+                    "operation=" + operation +
+                    ", reason=" + reason +
+                    ", attempts=" + attempts +
+                    ", elapsed=" + elapsedMillis +
+                    ", cause=" + cause +
+                    '}';
+        }
     }
 
     @Override
@@ -44,22 +174,31 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "saveOrUpdate: " + o);
 
-        long b = System.currentTimeMillis();
+        long b = System.nanoTime();
+        long a = b;
 
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.saveOrUpdate(o);
-                Log.d(TAG, "saveOrUpdate: cost = " + (System.currentTimeMillis() - b));
+                succeeded = true;
+                Log.d(TAG, "saveOrUpdate: cost = " + (System.nanoTime() - b) / 1000000);
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.w(TAG, "saveOrUpdate: ", e);
-                waitLock();
+                if (!waitLock("saveOrUpdate", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "saveOrUpdate: ", e);
+                fail("saveOrUpdate", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.SAVE, b, a, attempt, false);
         return ret;
     }
 
@@ -68,19 +207,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "saveOrUpdate: size = " + datas.size());
 
+        long b = System.nanoTime();
+        long a = b;
+
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.saveOrUpdate(datas);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.w(TAG, "saveOrUpdate: ", e);
-                waitLock();
+                if (!waitLock("saveOrUpdate", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "saveOrUpdate: ", e);
+                fail("saveOrUpdate", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.SAVE, b, a, attempt, false);
         return ret;
     }
 
@@ -89,19 +239,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "read: " + o);
 
+        long b = System.nanoTime();
+        long a = b;
+
         DATA ret = null;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.read(o);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.w(TAG, "read: ", e);
-                waitLock();
+                if (!waitLock("read", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "read: ", e);
+                fail("read", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.READ, b, a, attempt, false);
         return ret;
     }
 
@@ -110,19 +271,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "read: " + objects);
 
+        long b = System.nanoTime();
+        long a = b;
+
         List<DATA> ret = null;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.read(objects);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.w(TAG, "read: ", e);
-                waitLock();
+                if (!waitLock("read", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "read ... : ", e);
+                fail("read", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.READ, b, a, attempt, false);
         return ret;
     }
 
@@ -131,19 +303,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "read: pageSize = " + pageSize + ", offset = " + offset + ", objects = " + object);
 
+        long b = System.nanoTime();
+        long a = b;
+
         List<DATA> ret = null;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.read(pageSize, offset, object);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.w(TAG, "read: ", e);
-                waitLock();
+                if (!waitLock("read", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "read: ", e);
+                fail("read", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.READ, b, a, attempt, false);
         return ret;
     }
 
@@ -152,19 +335,110 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "read: all");
 
+        long b = System.nanoTime();
+        long a = b;
+
         List<DATA> ret = null;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.read();
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.w(TAG, "read: ", e);
-                waitLock();
+                if (!waitLock("read", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "read: ", e);
+                fail("read", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.READ, b, a, attempt, false);
+        return ret;
+    }
+
+    @Override
+    public Page<DATA> readPage(int pageSize, String token, Map<String, Object> objects) {
+
+        Log.d(TAG, "readPage: pageSize = " + pageSize + ", token = " + token + ", objects = " + objects);
+
+        long b = System.nanoTime();
+        long a = b;
+
+        Page<DATA> ret = null;
+        int attempt = 0;
+        boolean succeeded = false;
+        while (true) {
+            try {
+                a = System.nanoTime();
+                ret = Page.read(operation, pageSize, token, objects);
+                succeeded = true;
+                break;
+            } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
+                Log.w(TAG, "readPage: ", e);
+                if (!waitLock("readPage", ++attempt, b, e))
+                    break;
+            } catch (Throwable e) {
+                Log.e(TAG, "readPage: ", e);
+                fail("readPage", attempt, b, a, e);
+                break;
+            }
+        }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.READ, b, a, attempt, false);
+        return ret;
+    }
+
+    /**
+     * Retried only while no chunk was handed out yet, a retry later on would repeat rows.
+     */
+    @Override
+    public int stream(Map<String, Object> objects, int chunkSize, final ChunkConsumer<DATA> consumer) {
+
+        Log.d(TAG, "stream: chunkSize = " + chunkSize + ", objects = " + objects);
+
+        long b = System.nanoTime();
+        long a = b;
+
+        final int[] chunks = new int[1];
+        ChunkConsumer<DATA> counting = new ChunkConsumer<DATA>() {
+            @Override
+            public boolean onChunk(List<DATA> chunk) {
+                chunks[0]++;
+                return consumer.onChunk(chunk);
+            }
+        };
+
+        int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
+        while (true) {
+            try {
+                a = System.nanoTime();
+                ret = Chunks.stream(operation, objects, chunkSize, counting);
+                succeeded = true;
+                break;
+            } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
+                Log.w(TAG, "stream: ", e);
+                if (chunks[0] > 0) {
+                    fail("stream", attempt, b, a, e);
+                    break;
+                }
+                if (!waitLock("stream", ++attempt, b, e))
+                    break;
+            } catch (Throwable e) {
+                Log.e(TAG, "stream: ", e);
+                fail("stream", attempt, b, a, e);
+                break;
+            }
+        }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.READ, b, a, attempt, false);
         return ret;
     }
 
@@ -173,19 +447,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "delete: " + o);
 
+        long b = System.nanoTime();
+        long a = b;
+
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.delete(o);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.w(TAG, "delete: ", e);
-                waitLock();
+                if (!waitLock("delete", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "delete: ", e);
+                fail("delete", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.DELETE, b, a, attempt, false);
         return ret;
     }
 
@@ -194,19 +479,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "delete: "+ objects);
 
+        long b = System.nanoTime();
+        long a = b;
+
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.delete(objects);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.d(TAG, "delete: ", e);
-                waitLock();
+                if (!waitLock("delete", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "delete ... : ", e);
+                fail("delete", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.DELETE, b, a, attempt, false);
         return ret;
     }
 
@@ -215,19 +511,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "delete: size = " + datas.size());
 
+        long b = System.nanoTime();
+        long a = b;
+
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.delete(datas);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.e(TAG, "delete: ", e);
-                waitLock();
+                if (!waitLock("delete", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "delete: ", e);
+                fail("delete", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.DELETE, b, a, attempt, false);
         return ret;
     }
 
@@ -236,19 +543,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "delete: all");
 
+        long b = System.nanoTime();
+        long a = b;
+
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.delete();
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.e(TAG, "delete: ", e);
-                waitLock();
+                if (!waitLock("delete", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "delete: ", e);
+                fail("delete", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.DELETE, b, a, attempt, false);
         return ret;
     }
 
@@ -257,19 +575,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "count: all");
 
+        long b = System.nanoTime();
+        long a = b;
+
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.count();
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.e(TAG, "count: ", e);
-                waitLock();
+                if (!waitLock("count", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "count: ", e);
+                fail("count", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.COUNT, b, a, attempt, false);
         return ret;
     }
 
@@ -278,19 +607,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "count: " + data);
 
+        long b = System.nanoTime();
+        long a = b;
+
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.count(data);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.e(TAG, "count: ", e);
-                waitLock();
+                if (!waitLock("count", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "count: ", e);
+                fail("count", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.COUNT, b, a, attempt, false);
         return ret;
     }
 
@@ -299,19 +639,30 @@ public final class SafeDatabaseOperator<DATA> implements IDatabaseOperation<DATA
 
         Log.d(TAG, "count: " + objects);
 
+        long b = System.nanoTime();
+        long a = b;
+
         int ret = 0;
+        int attempt = 0;
+        boolean succeeded = false;
         while (true) {
             try {
+                a = System.nanoTime();
                 ret = operation.count(objects);
+                succeeded = true;
                 break;
             } catch (SQLiteDatabaseLockedException | SQLiteTableLockedException e) {
                 Log.e(TAG, "count: ", e);
-                waitLock();
+                if (!waitLock("count", ++attempt, b, e))
+                    break;
             } catch (Throwable e) {
                 Log.e(TAG, "count: ", e);
+                fail("count", attempt, b, a, e);
                 break;
             }
         }
+        if (succeeded)
+            metrics.record(DatabaseMetrics.COUNT, b, a, attempt, false);
         return ret;
     }
 }
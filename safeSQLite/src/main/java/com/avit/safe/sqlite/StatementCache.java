@@ -0,0 +1,104 @@
+package com.avit.safe.sqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of compiled statements by SQL. A statement is checked out while in use, so two
+ * threads never bind the same one, a thread finding it checked out compiles a private copy that
+ * is closed or pooled on release. The least recently released statements are closed first.
+ */
+final class StatementCache {
+
+    private final SQLiteDatabase db;
+    private final int maxSize;
+
+    // guarded by this
+    private final LinkedHashMap<String, SQLiteStatement> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean closed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong compiles = new AtomicLong();
+
+    StatementCache(SQLiteDatabase db, int maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+        this.db = db;
+        this.maxSize = maxSize;
+    }
+
+    SQLiteStatement acquire(String sql) {
+        synchronized (this) {
+            SQLiteStatement statement = idle.remove(sql);
+            if (statement != null) {
+                hits.incrementAndGet();
+                return statement;
+            }
+        }
+        compiles.incrementAndGet();
+        return db.compileStatement(sql);
+    }
+
+    void release(String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+
+        List<SQLiteStatement> evicted = null;
+        synchronized (this) {
+            if (!closed && !idle.containsKey(sql)) {
+                idle.put(sql, statement);
+                statement = null;
+
+                Iterator<SQLiteStatement> it = idle.values().iterator();
+                while (idle.size() > maxSize && it.hasNext()) {
+                    if (evicted == null)
+                        evicted = new ArrayList<>();
+                    evicted.add(it.next());
+                    it.remove();
+                }
+            }
+        }
+
+        if (statement != null)
+            statement.close();
+        if (evicted != null) {
+            for (SQLiteStatement old : evicted) {
+                old.close();
+            }
+        }
+    }
+
+    void close() {
+        List<SQLiteStatement> statements;
+        synchronized (this) {
+            closed = true;
+            statements = new ArrayList<>(idle.values());
+            idle.clear();
+        }
+        for (SQLiteStatement statement : statements) {
+            statement.close();
+        }
+    }
+
+    synchronized int size() {
+        return idle.size();
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long compiles() {
+        return compiles.get();
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCache{size=" + size() + ", hits=" + hits + ", compiles=" + compiles + '}';
+    }
+}
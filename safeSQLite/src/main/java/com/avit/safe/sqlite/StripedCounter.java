@@ -0,0 +1,54 @@
+package com.avit.safe.sqlite;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over padded cells picked by thread, so threads counting at once rarely touch
+ * the same cache line. A poor man's LongAdder, which is not available before API 24.
+ */
+final class StripedCounter {
+
+    // longs between two cells, 64 bytes
+    private static final int PAD = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = 1;
+        int wanted = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        while (stripes < wanted) {
+            stripes <<= 1;
+        }
+        cells = new AtomicLongArray(stripes * PAD);
+        mask = stripes - 1;
+    }
+
+    private int cell() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        h ^= (h >>> 16);
+        return (h & mask) * PAD;
+    }
+
+    void increment() {
+        cells.getAndIncrement(cell());
+    }
+
+    void add(long delta) {
+        cells.getAndAdd(cell(), delta);
+    }
+
+    /**
+     * Not atomic with concurrent adds, fine for statistics.
+     */
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,103 @@
+package com.avit.safe.sqlite;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write locks of a {@link BaseDatabaseOperator}. A write of some entities takes the stripes of
+ * their keys and shares the table, so writers of different keys rarely wait for each other, a
+ * write of the whole table, or of rows it can not tell by key, takes the table exclusively.
+ * <p>
+ * Stripes are taken in index order, so writers of several keys do not deadlock. All locks are
+ * reentrant, but a thread holding keys must not take the table, that would never be granted.
+ */
+public final class StripedLocks {
+
+    private final ReentrantReadWriteLock table = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripes rounded up to a power of two
+     */
+    public StripedLocks(int stripes) {
+        if (stripes < 1)
+            throw new IllegalArgumentException("stripes < 1: " + stripes);
+        int count = 1;
+        while (count < stripes) {
+            count <<= 1;
+        }
+        this.stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = count - 1;
+    }
+
+    private int index(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    public void lock(Object key) {
+        table.readLock().lock();
+        stripes[index(key)].lock();
+    }
+
+    public void unlock(Object key) {
+        stripes[index(key)].unlock();
+        table.readLock().unlock();
+    }
+
+    /**
+     * @return the stripes taken, to pass to {@link #unlockAll(int[])}
+     */
+    public int[] lockAll(Collection<?> keys) {
+        boolean[] marked = new boolean[stripes.length];
+        int count = 0;
+        for (Object key : keys) {
+            int i = index(key);
+            if (!marked[i]) {
+                marked[i] = true;
+                count++;
+            }
+        }
+
+        int[] taken = new int[count];
+        int n = 0;
+        for (int i = 0; i < marked.length; i++) {
+            if (marked[i])
+                taken[n++] = i;
+        }
+
+        table.readLock().lock();
+        for (int i : taken) {
+            stripes[i].lock();
+        }
+        return taken;
+    }
+
+    public void unlockAll(int[] taken) {
+        for (int i = taken.length - 1; i >= 0; i--) {
+            stripes[taken[i]].unlock();
+        }
+        table.readLock().unlock();
+    }
+
+    /**
+     * Waits for the writers of keys to finish and keeps new ones out.
+     *
+     * @throws IllegalStateException if the thread holds keys
+     */
+    public void lockTable() {
+        if (table.getReadHoldCount() > 0)
+            throw new IllegalStateException("table lock wanted while holding keys");
+        table.writeLock().lock();
+    }
+
+    public void unlockTable() {
+        table.writeLock().unlock();
+    }
+}
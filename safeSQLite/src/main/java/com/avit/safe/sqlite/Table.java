@@ -0,0 +1,19 @@
+package com.avit.safe.sqlite;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an entity for the mapping processor, which generates a {@link TableMapping} named
+ * after it with a "_Mapping" suffix, see {@link Column} and {@link Key}.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Table {
+    /**
+     * table name, the simple class name if empty
+     */
+    String value() default "";
+}
@@ -0,0 +1,35 @@
+package com.avit.safe.sqlite;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteProgram;
+
+/**
+ * Maps the entities of a {@link SQLiteDatabaseOperator} to the rows of one table.
+ * <p>
+ * Columns are always read and bound in the order of {@link #columns()}, by index, so neither
+ * side looks columns up by name.
+ */
+public interface TableMapping<KEY, DATA> {
+
+    String table();
+
+    /**
+     * primary key column, one of {@link #columns()}
+     */
+    String keyColumn();
+
+    String[] columns();
+
+    KEY key(DATA data);
+
+    /**
+     * Binds the columns of data to indexes 1 to columns().length, see
+     * {@link SQLiteDatabaseOperator#bindValue} for plain values.
+     */
+    void bind(SQLiteProgram program, DATA data);
+
+    /**
+     * @param cursor positioned on a row with the columns at indexes 0 to columns().length - 1
+     */
+    DATA read(Cursor cursor);
+}
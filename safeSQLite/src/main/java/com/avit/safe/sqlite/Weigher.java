@@ -0,0 +1,12 @@
+package com.avit.safe.sqlite;
+
+/**
+ * Estimates what a cached entity costs, in whatever unit the cache budget is given, usually bytes.
+ */
+public interface Weigher<KEY, DATA> {
+
+    /**
+     * @return a non negative weight, it must not change while the entity is cached
+     */
+    int weigh(KEY key, DATA data);
+}
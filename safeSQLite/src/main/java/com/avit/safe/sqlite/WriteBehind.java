@@ -0,0 +1,226 @@
+package com.avit.safe.sqlite;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dirty entities of a write-behind {@link BaseDatabaseOperator.Cache}, persisted in batches
+ * through {@link BaseDatabaseOperator#store} once maxBatchSize are pending, maxDelayMillis after
+ * the first of them, or on {@link #flush()}. Saving a key again before it is flushed replaces the
+ * pending entity, so it is written once.
+ * <p>
+ * Flushes run on the {@link Background} thread. After a failed flush the next one waits at least
+ * {@link #MIN_RETRY_MILLIS}, twice as long after every further failure up to
+ * {@link #MAX_RETRY_MILLIS}, and full batches no longer flush right away until a flush succeeds.
+ */
+final class WriteBehind<KEY, DATA> {
+
+    private static final String TAG = "WriteBehind";
+
+    static final long MIN_RETRY_MILLIS = 1000;
+    static final long MAX_RETRY_MILLIS = 60 * 1000;
+
+    private final BaseDatabaseOperator<KEY, DATA> operator;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+
+    // guarded by this, insertion ordered so the oldest writes go first
+    private final LinkedHashMap<KEY, DATA> dirty = new LinkedHashMap<>();
+    private long dirtySince;
+    private boolean scheduled;
+    private boolean urgent;
+    private boolean closed;
+    // flushes failed in a row
+    private int failures;
+
+    // held while a batch is stored, removals wait for it so a flush can not resurrect a deleted row
+    private final ReentrantLock flushing = new ReentrantLock();
+
+    private final AtomicLong flushedWrites = new AtomicLong();
+    private final AtomicLong collapsedWrites = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WriteBehind.this) {
+                scheduled = false;
+                urgent = false;
+            }
+            try {
+                flush();
+            } catch (Throwable e) {
+                Log.e(TAG, "flush: " + operator.getLogTag() + " failed, " + unflushedWrites() + " pending", e);
+            }
+            synchronized (WriteBehind.this) {
+                if (!dirty.isEmpty())
+                    schedule(false);
+            }
+        }
+    };
+
+    WriteBehind(BaseDatabaseOperator<KEY, DATA> operator, int maxBatchSize, long maxDelayMillis) {
+        this.operator = operator;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return false if closed, the caller has to write through
+     */
+    synchronized boolean put(KEY key, DATA data) {
+        if (closed)
+            return false;
+
+        if (dirty.isEmpty())
+            dirtySince = SystemClock.elapsedRealtime();
+        if (dirty.put(key, data) != null)
+            collapsedWrites.incrementAndGet();
+
+        schedule(dirty.size() >= maxBatchSize);
+        return true;
+    }
+
+    /**
+     * Caller holds the monitor.
+     */
+    private void schedule(boolean now) {
+        if (now && !urgent && failures == 0) {
+            urgent = true;
+            scheduled = true;
+            Background.executor().execute(flushTask);
+        } else if (!scheduled) {
+            scheduled = true;
+            Background.executor().schedule(flushTask, delayMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Caller holds the monitor.
+     */
+    private long delayMillis() {
+        if (failures == 0)
+            return maxDelayMillis;
+        long retry = Math.min(MAX_RETRY_MILLIS, MIN_RETRY_MILLIS << Math.min(failures - 1, 16));
+        return Math.max(maxDelayMillis, retry);
+    }
+
+    synchronized DATA pending(KEY key) {
+        return dirty.get(key);
+    }
+
+    void remove(KEY key) {
+        flushing.lock();
+        try {
+            synchronized (this) {
+                dirty.remove(key);
+            }
+        } finally {
+            flushing.unlock();
+        }
+    }
+
+    void clear() {
+        flushing.lock();
+        try {
+            synchronized (this) {
+                dirty.clear();
+            }
+        } finally {
+            flushing.unlock();
+        }
+    }
+
+    /**
+     * Stores every pending entity on the calling thread. A failed batch stays pending, unless it
+     * was saved again meanwhile, and its error is thrown.
+     */
+    void flush() {
+        flushing.lock();
+        try {
+            List<DATA> batch;
+            while (!(batch = take()).isEmpty()) {
+                try {
+                    operator.store(batch);
+                    flushedWrites.addAndGet(batch.size());
+                } catch (RuntimeException | Error e) {
+                    failedFlushes.incrementAndGet();
+                    restore(batch);
+                    synchronized (this) {
+                        failures++;
+                    }
+                    throw e;
+                }
+            }
+            synchronized (this) {
+                failures = 0;
+            }
+        } finally {
+            flushing.unlock();
+        }
+    }
+
+    /**
+     * Flushes and makes later puts write through.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+    }
+
+    private synchronized List<DATA> take() {
+        List<DATA> batch = new ArrayList<>(Math.min(dirty.size(), maxBatchSize));
+        Iterator<DATA> it = dirty.values().iterator();
+        while (batch.size() < maxBatchSize && it.hasNext()) {
+            batch.add(it.next());
+            it.remove();
+        }
+        return batch;
+    }
+
+    private synchronized void restore(List<DATA> batch) {
+        LinkedHashMap<KEY, DATA> newer = new LinkedHashMap<>(dirty);
+        dirty.clear();
+        for (DATA data : batch) {
+            dirty.put(operator.dataKey(data), data);
+        }
+        // entities saved after the batch was taken win
+        for (Map.Entry<KEY, DATA> entry : newer.entrySet()) {
+            dirty.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    synchronized int unflushedWrites() {
+        return dirty.size();
+    }
+
+    /**
+     * @return how long the oldest pending write has waited, roughly, 0 if none
+     */
+    synchronized long unflushedMillis() {
+        return dirty.isEmpty() ? 0 : SystemClock.elapsedRealtime() - dirtySince;
+    }
+
+    long flushedWrites() {
+        return flushedWrites.get();
+    }
+
+    long collapsedWrites() {
+        return collapsedWrites.get();
+    }
+
+    long failedFlushes() {
+        return failedFlushes.get();
+    }
+}